@@ -2,70 +2,255 @@ package com.tryright;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
 
 /**
  * BinPointStore - reads points from binary-encoded files using memory-mapped I/O
- * Format: Zero or more pairs of 4-byte big-endian integers (x, y)
+ * Format: Zero or more pairs of 4-byte big-endian integers (x, y), or a version 2
+ * file (see PointFileHeader) whose little-endian payload is read without byte swapping
+ * and whose header stats are passed on through getStats()
+ *
+ * A single MappedByteBuffer is capped at 2 GB, so bigger files are mapped as
+ * several 1 GB segments with 64-bit offsets. Files that fit in one segment
+ * keep the single-buffer fast path.
+ *
+ * close() unmaps the file right away (see MappedArena) instead of waiting for the
+ * garbage collector. Every read holds a ReaderGuard, which close() drains before
+ * unmapping, so reads after close, or racing it on another thread, throw
+ * IllegalStateException instead of touching unmapped memory.
  */
 public class BinPointStore implements PointStore {
     
     private static final int INTEGER_SIZE = 4; // Java int is 4 bytes
     private static final int POINT_SIZE = 2 * INTEGER_SIZE; // x and y = 8 bytes per point
     
-    private final MappedByteBuffer buffer;
+    // 1 GB segments: a multiple of POINT_SIZE, so no point straddles two segments
+    static final int SEGMENT_SHIFT = 30;
+    
+    // Points per bulk read in getPoints (64 KB of interleaved pairs)
+    private static final int BULK_POINTS = 1 << 13;
+    
+    private final MappedByteBuffer buffer; // first (or only) segment
+    private final MappedByteBuffer[] segments; // null when the file fits in one segment
+    private final IntBuffer[] intViews; // int view of each segment, for bulk reads
+    private final int segmentShift;
+    private final long segmentMask;
     private final RandomAccessFile file;
     private final FileChannel channel;
+    private final MappedArena arena = new MappedArena();
+    private final ReaderGuard guard = new ReaderGuard();
     private final int numPoints;
+    private final PointFileHeader header;
     
     /**
      * Constructor - maps binary file to memory
      * @param filename path to binary-encoded file
      */
     public BinPointStore(String filename) throws IOException {
+        this(filename, SEGMENT_SHIFT);
+    }
+    
+    /**
+     * Constructor - maps binary file to memory in segments of 2^segmentShift bytes
+     * (package-private so tests can exercise several segments on a small file)
+     * @param filename path to binary-encoded file
+     * @param segmentShift log2 of the segment size; at least 3 and at most 30
+     */
+    BinPointStore(String filename, int segmentShift) throws IOException {
+        this(filename, segmentShift, false);
+    }
+    
+    /**
+     * Constructor - maps a binary file to memory, optionally as raw pairs even if it
+     * starts like a version 2 header (for PointStoreRegistry)
+     * @param filename path to binary-encoded file
+     * @param segmentShift log2 of the segment size; at least 3 and at most 30
+     * @param raw true to skip the version 2 header check
+     */
+    BinPointStore(String filename, int segmentShift, boolean raw) throws IOException {
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        
         file = new RandomAccessFile(filename, "r");
         channel = file.getChannel();
         
-        long fileSize = channel.size();
+        // Validate file size, or the header of a version 2 file
+        try {
+            header = raw ? PointFileHeader.readRaw(channel) : PointFileHeader.read(channel);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        
+        if (header.columnar) {
+            close();
+            throw new IOException("Invalid binary file format: columnar file, use ColumnPointStore");
+        }
         
-        // Validate file size
-        if (fileSize % POINT_SIZE != 0) {
+        if (header.numPoints > Integer.MAX_VALUE) {
             close();
-            throw new IOException("Invalid binary file format: file size (" + fileSize + 
-                                " bytes) is not a multiple of " + POINT_SIZE + " bytes");
+            throw new IOException("Invalid binary file format: more than " + Integer.MAX_VALUE + " points");
         }
         
-        numPoints = (int)(fileSize / POINT_SIZE);
+        numPoints = (int)header.numPoints;
         
-        // Map entire file to memory for efficient random access
-        if (fileSize > 0) {
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
-        } else {
-            buffer = null; // Empty file
+        // Map the whole payload to memory for efficient random access; offsets below are
+        // relative to the payload, so a header does not change the point arithmetic.
+        // A failed map (no address space, file truncated meanwhile) releases what was mapped so far
+        long dataSize = header.numPoints * POINT_SIZE;
+        long segmentSize = 1L << segmentShift;
+        try {
+            if (dataSize == 0) {
+                buffer = null; // Empty file
+                segments = null;
+                intViews = new IntBuffer[0];
+            } else if (dataSize <= segmentSize) {
+                buffer = map(header.dataOffset, dataSize);
+                segments = null;
+                intViews = new IntBuffer[] { buffer.asIntBuffer() };
+            } else {
+                int numSegments = (int)((dataSize + segmentSize - 1) >>> segmentShift);
+                segments = new MappedByteBuffer[numSegments];
+                for (int k = 0; k < numSegments; k++) {
+                    long start = (long)k << segmentShift;
+                    segments[k] = map(header.dataOffset + start, Math.min(segmentSize, dataSize - start));
+                }
+                buffer = segments[0];
+                intViews = new IntBuffer[numSegments];
+                for (int k = 0; k < numSegments; k++) {
+                    intViews[k] = segments[k].asIntBuffer();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
         }
     }
     
+    // Map part of the file in the payload's byte order (native for version 2, so no swapping)
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        return arena.map(channel, position, size, header.order);
+    }
+    
+    private IndexOutOfBoundsException outOfBounds(int idx) {
+        return new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+    }
+    
     @Override
     public int getX(int idx) {
-        if (idx < 0 || idx >= numPoints) {
-            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        guard.enter();
+        try {
+            if (idx < 0 || idx >= numPoints) {
+                throw outOfBounds(idx);
+            }
+            
+            // X is at position: idx * POINT_SIZE (fits in an int within one segment)
+            if (segments == null) {
+                return buffer.getInt(idx * POINT_SIZE);
+            }
+            return getInt((long)idx * POINT_SIZE);
+        } finally {
+            guard.exit();
         }
-        
-        // X is at position: idx * POINT_SIZE
-        int position = idx * POINT_SIZE;
-        return buffer.getInt(position);
     }
     
     @Override
     public int getY(int idx) {
-        if (idx < 0 || idx >= numPoints) {
-            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        guard.enter();
+        try {
+            if (idx < 0 || idx >= numPoints) {
+                throw outOfBounds(idx);
+            }
+            
+            // Y is at position: idx * POINT_SIZE + INTEGER_SIZE
+            if (segments == null) {
+                return buffer.getInt(idx * POINT_SIZE + INTEGER_SIZE);
+            }
+            return getInt((long)idx * POINT_SIZE + INTEGER_SIZE);
+        } finally {
+            guard.exit();
+        }
+    }
+    
+    // Read the int at a 64-bit file offset from whichever segment holds it
+    private int getInt(long position) {
+        return segments[(int)(position >>> segmentShift)].getInt((int)(position & segmentMask));
+    }
+    
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        guard.enter();
+        try {
+            PointStore.checkRange(startIdx, count, numPoints, xs, ys, offset);
+            
+            // Bulk-copy interleaved x,y pairs through the int view a chunk at a time, then split them
+            int[] pairs = new int[2 * Math.min(count, BULK_POINTS)];
+            int pointsPerSegment = 1 << (segmentShift - 3);
+            int done = 0;
+            while (done < count) {
+                int idx = startIdx + done;
+                int segment = idx / pointsPerSegment;
+                int inSegment = idx % pointsPerSegment;
+                int length = Math.min(Math.min(count - done, BULK_POINTS), pointsPerSegment - inSegment);
+            
+                intViews[segment].get(2 * inSegment, pairs, 0, 2 * length);
+                for (int k = 0, at = offset + done; k < length; k++, at++) {
+                    xs[at] = pairs[2 * k];
+                    ys[at] = pairs[2 * k + 1];
+                }
+                done += length;
+            }
+        } finally {
+            guard.exit();
+        }
+    }
+    
+    /**
+     * Count, bounds and duplicate flag from a version 2 header
+     * @return stats from the header, or null for a raw file
+     */
+    @Override
+    public PointStats getStats() {
+        return header.stats;
+    }
+    
+    /**
+     * Get the format version of the file
+     * @return 1 for raw big-endian pairs, 2 for a file with a header
+     */
+    public int getVersion() {
+        return header.version;
+    }
+    
+    /**
+     * Check the payload against the CRC32C in a version 2 header
+     * @throws IOException if the header has a checksum and the payload does not match it
+     */
+    public void verifyChecksum() throws IOException {
+        guard.enter();
+        CRC32C crc = new CRC32C();
+        try {
+            if (!header.hasChecksum) {
+                return;
+            }
+            if (segments != null) {
+                for (MappedByteBuffer segment : segments) {
+                    crc.update(segment.duplicate().clear());
+                }
+            } else if (buffer != null) {
+                crc.update(buffer.duplicate().clear());
+            }
+        } finally {
+            guard.exit();
+        }
+        if (crc.getValue() != header.checksum) {
+            throw new IOException("Checksum mismatch: payload is corrupt");
         }
-        
-        // Y is at position: idx * POINT_SIZE + INTEGER_SIZE
-        int position = idx * POINT_SIZE + INTEGER_SIZE;
-        return buffer.getInt(position);
     }
     
     @Override
@@ -75,6 +260,9 @@ public class BinPointStore implements PointStore {
     
     @Override
     public void close() {
+        // Waits for reads in flight, so none of them sees the unmapped file
+        guard.close();
+        arena.close();
         try {
             if (channel != null && channel.isOpen()) {
                 channel.close();
@@ -86,4 +274,86 @@ public class BinPointStore implements PointStore {
             System.err.println("Warning: Error closing file: " + e.getMessage());
         }
     }
+    
+    /**
+     * Writer - streams points to a raw or version 2 interleaved file
+     * Raw files are big-endian pairs; version 2 files get their header, with bounds
+     * and a CRC32C of the payload, when the writer is closed.
+     */
+    public static class Writer implements PointStoreWriter {
+        
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ChannelOutput out;
+        private final boolean version2;
+        private final CRC32C checksum;
+        private final PointStats.Accumulator stats = new PointStats.Accumulator();
+        private boolean distinct;
+        
+        /**
+         * Constructor - version 2 files get a checksum
+         * @param filename path of the file to create or replace
+         * @param version2 true for a version 2 file, false for raw big-endian pairs
+         */
+        public Writer(String filename, boolean version2) throws IOException {
+            this(filename, version2, version2);
+        }
+        
+        /**
+         * Constructor
+         * @param filename path of the file to create or replace
+         * @param version2 true for a version 2 file, false for raw big-endian pairs
+         * @param withChecksum whether a version 2 header stores a CRC32C of the payload
+         */
+        Writer(String filename, boolean version2, boolean withChecksum) throws IOException {
+            this.version2 = version2;
+            this.checksum = version2 && withChecksum ? new CRC32C() : null;
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            channel.truncate(0);
+            out = new ChannelOutput(channel, version2 ? PointFileHeader.HEADER_SIZE : 0,
+                version2 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN, checksum);
+        }
+        
+        @Override
+        public void write(int[] xs, int[] ys, int offset, int count) throws IOException {
+            stats.add(xs, ys, offset, count);
+            int done = 0;
+            while (done < count) {
+                // As many points as fit in the current buffer
+                ByteBuffer target = out.reserve(POINT_SIZE);
+                int end = offset + done + Math.min(count - done, target.remaining() / POINT_SIZE);
+                for (int k = offset + done; k < end; k++) {
+                    target.putInt(xs[k]).putInt(ys[k]);
+                }
+                done = end - offset;
+            }
+        }
+        
+        @Override
+        public void setDistinct(boolean distinct) {
+            this.distinct = distinct;
+        }
+        
+        @Override
+        public long numPoints() {
+            return stats.count;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+                if (version2) {
+                    if (stats.count > Integer.MAX_VALUE) {
+                        throw new IOException("Invalid binary file format: more than " + Integer.MAX_VALUE + " points");
+                    }
+                    PointFileHeader.writeHeader(channel, stats.toStats(!distinct),
+                        checksum != null ? checksum.getValue() : null, false);
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
 }
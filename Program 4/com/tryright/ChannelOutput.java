@@ -0,0 +1,92 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * ChannelOutput - buffered output to a FileChannel through a ring of direct buffers
+ *
+ * Writers put bytes into the current buffer and move on to the next one when it
+ * is full. Once every buffer is full they all go out in one gathering write,
+ * so large outputs take few system calls and no copies through the heap.
+ * An optional checksum sees the bytes in file order.
+ */
+class ChannelOutput {
+
+    // 4 buffers of 4 MB: 16 MB per gathering write
+    static final int BUFFER_SIZE = 4 << 20;
+    private static final int BUFFERS = 4;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFERS];
+    private final Checksum checksum;
+    private int current;
+    private long flushed; // file position of the first byte in buffers[0]
+
+    /**
+     * Constructor
+     * @param channel channel to write to
+     * @param start file position of the first byte
+     * @param order byte order of the buffers
+     * @param checksum checksum to update with every byte written, or null
+     */
+    ChannelOutput(FileChannel channel, long start, ByteOrder order, Checksum checksum) throws IOException {
+        this.channel = channel;
+        this.checksum = checksum;
+        this.flushed = start;
+        channel.position(start);
+        for (int k = 0; k < BUFFERS; k++) {
+            buffers[k] = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+        }
+    }
+
+    /**
+     * Get a buffer with room for at least bytes more bytes
+     * @param bytes bytes about to be put (at most BUFFER_SIZE)
+     * @return buffer to put them in
+     */
+    ByteBuffer reserve(int bytes) throws IOException {
+        if (buffers[current].remaining() < bytes) {
+            if (current + 1 < BUFFERS) {
+                current++;
+            } else {
+                flush();
+            }
+        }
+        return buffers[current];
+    }
+
+    /**
+     * Get the file position the next byte will be written at
+     * @return file position
+     */
+    long position() {
+        long position = flushed;
+        for (int k = 0; k <= current; k++) {
+            position += buffers[k].position();
+        }
+        return position;
+    }
+
+    /**
+     * Write out every buffered byte with one gathering write
+     */
+    void flush() throws IOException {
+        for (int k = 0; k <= current; k++) {
+            buffers[k].flip();
+            if (checksum != null) {
+                checksum.update(buffers[k].duplicate());
+            }
+        }
+        while (buffers[current].hasRemaining()) {
+            flushed += channel.write(buffers, 0, current + 1);
+        }
+        for (int k = 0; k <= current; k++) {
+            buffers[k].clear();
+        }
+        current = 0;
+    }
+}
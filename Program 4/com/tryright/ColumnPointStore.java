@@ -0,0 +1,334 @@
+package com.tryright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * ColumnPointStore - reads points from columnar version 2 binary files using memory-mapped I/O
+ * Format: see PointFileHeader; all x values, then all y values, each column 64-byte aligned
+ *
+ * Each column is mapped as IntBuffer views straight over the page cache, in the
+ * file's native byte order. getXColumn/getYColumn hand those views out without
+ * copying, and getPoints fills coordinate arrays with one bulk copy per column
+ * instead of splitting interleaved pairs. Columns over 1 GB are mapped in 1 GB segments.
+ *
+ * Column views may outlive the store, so close() leaves the mappings to the garbage
+ * collector; only a constructor that fails part way unmaps what it had mapped.
+ */
+public class ColumnPointStore implements PointStore {
+
+    // 2^28 ints: 1 GB of one column per mapping
+    private static final int SEGMENT_SHIFT = 28;
+
+    private final IntBuffer xColumn; // first (or only) segment of each column
+    private final IntBuffer yColumn;
+    private final IntBuffer[] xSegments; // null when each column fits in one segment
+    private final IntBuffer[] ySegments;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedArena arena = new MappedArena();
+    private final int numPoints;
+    private final PointFileHeader header;
+
+    /**
+     * Constructor - maps both columns of a columnar file to memory
+     * @param filename path to columnar binary file
+     */
+    public ColumnPointStore(String filename) throws IOException {
+        this(filename, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Constructor - maps both columns in segments of 2^segmentShift points
+     * (package-private so tests can exercise several segments on a small file)
+     * @param filename path to columnar binary file
+     * @param segmentShift log2 of the points per segment; at most 28
+     */
+    ColumnPointStore(String filename, int segmentShift) throws IOException {
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1 << segmentShift) - 1;
+
+        file = new RandomAccessFile(filename, "r");
+        channel = file.getChannel();
+
+        try {
+            header = PointFileHeader.read(channel);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        if (!header.columnar) {
+            close();
+            throw new IOException("Invalid binary file format: not a columnar point file");
+        }
+
+        numPoints = (int)header.numPoints;
+
+        int numSegments = (int)((numPoints + (long)segmentMask) >>> segmentShift);
+        try {
+            if (numSegments == 0) {
+                xColumn = null; // Empty file
+                yColumn = null;
+                xSegments = null;
+                ySegments = null;
+            } else if (numSegments == 1) {
+                xColumn = mapColumn(header.dataOffset, numPoints);
+                yColumn = mapColumn(header.yColumnOffset(), numPoints);
+                xSegments = null;
+                ySegments = null;
+            } else {
+                xSegments = new IntBuffer[numSegments];
+                ySegments = new IntBuffer[numSegments];
+                for (int k = 0; k < numSegments; k++) {
+                    long start = (long)k << segmentShift;
+                    int length = (int)Math.min(1L << segmentShift, numPoints - start);
+                    xSegments[k] = mapColumn(header.dataOffset + start * Integer.BYTES, length);
+                    ySegments[k] = mapColumn(header.yColumnOffset() + start * Integer.BYTES, length);
+                }
+                xColumn = xSegments[0];
+                yColumn = ySegments[0];
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nothing has seen the mappings yet, so they can go right away
+            arena.close();
+            close();
+            throw e;
+        }
+    }
+
+    // Map part of one column as ints in the file's byte order
+    private IntBuffer mapColumn(long position, int length) throws IOException {
+        return arena.map(channel, position, (long)length * Integer.BYTES, header.order).asIntBuffer();
+    }
+
+    @Override
+    public int getX(int idx) {
+        if (idx < 0 || idx >= numPoints) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        }
+
+        if (xSegments == null) {
+            return xColumn.get(idx);
+        }
+        return xSegments[idx >>> segmentShift].get(idx & segmentMask);
+    }
+
+    @Override
+    public int getY(int idx) {
+        if (idx < 0 || idx >= numPoints) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        }
+
+        if (ySegments == null) {
+            return yColumn.get(idx);
+        }
+        return ySegments[idx >>> segmentShift].get(idx & segmentMask);
+    }
+
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        PointStore.checkRange(startIdx, count, numPoints, xs, ys, offset);
+
+        // One bulk copy per column and segment, no splitting
+        int done = 0;
+        while (done < count) {
+            int idx = startIdx + done;
+            int segment = idx >>> segmentShift;
+            int inSegment = idx & segmentMask;
+            int length = Math.min(count - done, (1 << segmentShift) - inSegment);
+
+            getXColumn(segment).get(inSegment, xs, offset + done, length);
+            getYColumn(segment).get(inSegment, ys, offset + done, length);
+            done += length;
+        }
+    }
+
+    /**
+     * Get a zero-copy view of the x column (read-only, file byte order)
+     * @param segment segment number, 0 unless the column is over 1 GB
+     * @return view of the x values in that segment, indexed from the segment start
+     */
+    public IntBuffer getXColumn(int segment) {
+        return (xSegments == null ? checkSegment(segment, xColumn) : xSegments[segment]).duplicate();
+    }
+
+    /**
+     * Get a zero-copy view of the y column (read-only, file byte order)
+     * @param segment segment number, 0 unless the column is over 1 GB
+     * @return view of the y values in that segment, indexed from the segment start
+     */
+    public IntBuffer getYColumn(int segment) {
+        return (ySegments == null ? checkSegment(segment, yColumn) : ySegments[segment]).duplicate();
+    }
+
+    private IntBuffer checkSegment(int segment, IntBuffer column) {
+        if (segment != 0 || column == null) {
+            throw new IndexOutOfBoundsException("Segment " + segment + " out of bounds for " + numSegments() + " segments");
+        }
+        return column;
+    }
+
+    /**
+     * Get number of segments each column is mapped in
+     * @return number of segments (0 for an empty file)
+     */
+    public int numSegments() {
+        return xSegments != null ? xSegments.length : (xColumn != null ? 1 : 0);
+    }
+
+    /**
+     * Get number of points per segment; every segment but the last is full
+     * @return points per segment
+     */
+    public int segmentPoints() {
+        return 1 << segmentShift;
+    }
+
+    @Override
+    public PointStats getStats() {
+        return header.stats;
+    }
+
+    /**
+     * Check the payload against the CRC32C in the header
+     * @throws IOException if the header has a checksum and the payload does not match it
+     */
+    public void verifyChecksum() throws IOException {
+        header.verifyChecksum(channel);
+    }
+
+    @Override
+    public int numPoints() {
+        return numPoints;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+            if (file != null) {
+                file.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Error closing file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writer - streams points to a columnar version 2 file
+     * The x column goes straight to the file; the y column goes to a temporary file
+     * next to it and is appended after the x column (and its padding) on close.
+     */
+    public static class Writer implements PointStoreWriter {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ChannelOutput xOut;
+        private final File yFile;
+        private final RandomAccessFile yTemp;
+        private final ChannelOutput yOut;
+        private final CRC32C checksum;
+        private final PointStats.Accumulator stats = new PointStats.Accumulator();
+        private boolean distinct;
+
+        /**
+         * Constructor - with a checksum
+         * @param filename path of the file to create or replace
+         */
+        public Writer(String filename) throws IOException {
+            this(filename, true);
+        }
+
+        /**
+         * Constructor
+         * @param filename path of the file to create or replace
+         * @param withChecksum whether the header stores a CRC32C of the payload
+         */
+        Writer(String filename, boolean withChecksum) throws IOException {
+            checksum = withChecksum ? new CRC32C() : null;
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            channel.truncate(0);
+            xOut = new ChannelOutput(channel, PointFileHeader.HEADER_SIZE, ByteOrder.LITTLE_ENDIAN, checksum);
+
+            File parent = new File(filename).getAbsoluteFile().getParentFile();
+            yFile = File.createTempFile("ycolumn", ".tmp", parent);
+            yFile.deleteOnExit();
+            yTemp = new RandomAccessFile(yFile, "rw");
+            yOut = new ChannelOutput(yTemp.getChannel(), 0, ByteOrder.LITTLE_ENDIAN, null);
+        }
+
+        @Override
+        public void write(int[] xs, int[] ys, int offset, int count) throws IOException {
+            stats.add(xs, ys, offset, count);
+            writeColumn(xOut, xs, offset, count);
+            writeColumn(yOut, ys, offset, count);
+        }
+
+        private static void writeColumn(ChannelOutput out, int[] values, int offset, int count) throws IOException {
+            int done = 0;
+            while (done < count) {
+                ByteBuffer target = out.reserve(Integer.BYTES);
+                int length = Math.min(count - done, target.remaining() / Integer.BYTES);
+                target.asIntBuffer().put(values, offset + done, length);
+                target.position(target.position() + length * Integer.BYTES);
+                done += length;
+            }
+        }
+
+        @Override
+        public void setDistinct(boolean distinct) {
+            this.distinct = distinct;
+        }
+
+        @Override
+        public long numPoints() {
+            return stats.count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (stats.count > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid binary file format: more than " + Integer.MAX_VALUE + " points");
+                }
+
+                // Padding, then the y column copied back from the temporary file
+                xOut.reserve(PointFileHeader.COLUMN_ALIGNMENT).put(new byte[PointFileHeader.columnPadding(stats.count)]);
+                yOut.flush();
+                FileChannel yChannel = yTemp.getChannel();
+                long yBytes = yChannel.size();
+                for (long copied = 0; copied < yBytes; ) {
+                    ByteBuffer target = xOut.reserve(1);
+                    int limit = target.limit();
+                    target.limit((int)Math.min(limit, target.position() + yBytes - copied));
+                    int read = yChannel.read(target, copied);
+                    target.limit(limit);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of temporary file");
+                    }
+                    copied += read;
+                }
+                xOut.flush();
+
+                PointFileHeader.writeHeader(channel, stats.toStats(!distinct),
+                    checksum != null ? checksum.getValue() : null, true);
+            } finally {
+                yTemp.close();
+                yFile.delete();
+                file.close();
+            }
+        }
+    }
+}
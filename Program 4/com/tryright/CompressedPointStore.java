@@ -0,0 +1,586 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * CompressedPointStore - reads points from compressed (.tpz) files, decoding blocks in parallel
+ *
+ * Format: a 64-byte little-endian header, the blocks, then the block index:
+ *
+ *   offset  size  field
+ *        0     4  magic "TRPZ"
+ *        4     4  version (1)
+ *        8     4  flags (bit 0: points may repeat)
+ *       12     4  point order (0: as given, 1: row-sorted, 2: Morton-sorted)
+ *       16     8  point count
+ *       24    16  min x, max x, min y, max y
+ *       40     4  points per block (the last block may hold fewer)
+ *       44     4  number of blocks
+ *       48     8  file offset of the block index
+ *       56     8  reserved (0)
+ *
+ * Points in input order are stored as x and y deltas from the previous point, zig-zag
+ * encoded. Sorted points are stored as one number each: the gap between consecutive
+ * sort keys of their offsets (dx, dy) from (minX, minY), where the row key is
+ * dy * width + dx and the Morton key interleaves the bits of dx and dy. Either way the
+ * numbers are base-128 varints, and each block starts again from zero, so blocks decode
+ * independently. The index holds the file offset of every block plus the end of the
+ * last one. Points are decoded into int arrays when the store is opened.
+ */
+public class CompressedPointStore implements PointStore {
+
+    /**
+     * Order points are written in; sorted orders trade the original order for smaller deltas
+     */
+    public enum Order {
+        INPUT, ROW, MORTON
+    }
+
+    static final int MAGIC = 'T' | 'R' << 8 | 'P' << 16 | 'Z' << 24; // "TRPZ" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int DEFAULT_BLOCK_POINTS = 4096;
+
+    private static final int FLAG_DUPLICATES = 1;
+
+    // Worst case per point: two 10-byte varints
+    private static final int MAX_POINT_BYTES = 20;
+
+    // Blocks are grouped into decode tasks of about this many compressed bytes
+    private static final int TASK_BYTES = 1 << 20;
+
+    private final int[] xCoords;
+    private final int[] yCoords;
+    private final int numPoints;
+    private final Order order;
+    private final PointStats stats;
+
+    /**
+     * Constructor - reads and decodes a compressed file on all available cores
+     * @param filename path to compressed file
+     */
+    public CompressedPointStore(String filename) throws IOException {
+        this(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor - reads and decodes a compressed file with the given number of decoder threads
+     * @param filename path to compressed file
+     * @param parallelism number of fork-join workers; 1 decodes sequentially
+     */
+    public CompressedPointStore(String filename, int parallelism) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (fileSize >= HEADER_SIZE) {
+                readFully(channel, header, 0);
+            }
+            checkHeader(header, fileSize);
+
+            int flags = header.getInt(8);
+            int orderCode = header.getInt(12);
+            long count = header.getLong(16);
+            int blockPoints = header.getInt(40);
+            int numBlocks = header.getInt(44);
+            long indexOffset = header.getLong(48);
+
+            this.numPoints = (int)count;
+            this.order = Order.values()[orderCode];
+            this.stats = PointStats.fromHeader(numPoints, header.getInt(24), header.getInt(28),
+                header.getInt(32), header.getInt(36), (flags & FLAG_DUPLICATES) != 0);
+
+            ByteBuffer indexBytes = ByteBuffer.allocate((numBlocks + 1) * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, indexBytes, indexOffset);
+            long[] index = new long[numBlocks + 1];
+            indexBytes.flip().asLongBuffer().get(index);
+            for (int k = 0; k < numBlocks; k++) {
+                if (index[k] < HEADER_SIZE || index[k + 1] < index[k] || index[k + 1] > indexOffset
+                    || index[k + 1] - index[k] > (long)blockPoints * MAX_POINT_BYTES) {
+                    throw new IOException("Invalid compressed file format: bad offset for block " + k);
+                }
+            }
+
+            xCoords = new int[numPoints];
+            yCoords = new int[numPoints];
+            decodeBlocks(channel, index, blockPoints, parallelism);
+        }
+    }
+
+    /**
+     * Check that a header is consistent with itself and the file size
+     * @param header first HEADER_SIZE bytes of the file (or all of a shorter file), little-endian
+     * @param fileSize size of the file in bytes
+     * @throws IOException if the file cannot be a compressed point file
+     */
+    static void checkHeader(ByteBuffer header, long fileSize) throws IOException {
+        if (fileSize < HEADER_SIZE || header.limit() < HEADER_SIZE) {
+            throw new IOException("Invalid compressed file format: file is shorter than the header");
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Invalid compressed file format: bad magic number");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compressed file version " + header.getInt(4));
+        }
+
+        int orderCode = header.getInt(12);
+        long count = header.getLong(16);
+        int blockPoints = header.getInt(40);
+        int numBlocks = header.getInt(44);
+        long indexOffset = header.getLong(48);
+
+        if (orderCode < 0 || orderCode >= Order.values().length) {
+            throw new IOException("Invalid compressed file format: unknown point order " + orderCode);
+        }
+        if (count < 0 || count > Integer.MAX_VALUE || blockPoints <= 0
+            || numBlocks != (count + blockPoints - 1) / blockPoints
+            || indexOffset < HEADER_SIZE || fileSize != indexOffset + (numBlocks + 1L) * Long.BYTES) {
+            throw new IOException("Invalid compressed file format: inconsistent header");
+        }
+    }
+
+    // Decode runs of consecutive blocks as fork-join tasks, each into its own slice of the arrays
+    private void decodeBlocks(FileChannel channel, long[] index, int blockPoints, int parallelism) throws IOException {
+        int numBlocks = index.length - 1;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        int first = 0;
+        while (first < numBlocks) {
+            int last = first + 1;
+            while (last < numBlocks && index[last + 1] - index[first] <= TASK_BYTES) {
+                last++;
+            }
+            int from = first, to = last;
+            tasks.add(() -> {
+                byte[] bytes = new byte[(int)(index[to] - index[from])];
+                readFully(channel, ByteBuffer.wrap(bytes), index[from]);
+                for (int k = from; k < to; k++) {
+                    int start = k * blockPoints;
+                    decodeBlock(bytes, (int)(index[k] - index[from]), (int)(index[k + 1] - index[from]),
+                        start, Math.min(blockPoints, numPoints - start), k);
+                }
+                return null;
+            });
+            first = last;
+        }
+
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            try {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Error decoding block: " + e);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> task : pool.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Error decoding block: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Decode one block of count points from bytes[pos, end) into the arrays at start
+    private void decodeBlock(byte[] bytes, int pos, int end, int start, int count, int block) throws IOException {
+        BlockReader in = new BlockReader(bytes, pos, end, block);
+        long width = (long)stats.maxX - stats.minX + 1;
+        long height = (long)stats.maxY - stats.minY + 1;
+
+        if (order == Order.INPUT) {
+            long x = 0, y = 0;
+            for (int k = start; k < start + count; k++) {
+                x += unZigZag(in.next());
+                y += unZigZag(in.next());
+                if (x != (int)x || y != (int)y) {
+                    throw in.corrupt();
+                }
+                xCoords[k] = (int)x;
+                yCoords[k] = (int)y;
+            }
+        } else {
+            // Offsets from (minX, minY), rebuilt from the sort keys
+            long key = 0, dx = 0, dy = 0;
+            for (int k = start; k < start + count; k++) {
+                long gap = in.next();
+                if (Long.compareUnsigned(key + gap, key) < 0) {
+                    throw in.corrupt();
+                }
+                key += gap;
+                if (order == Order.ROW) {
+                    // Usually a step along the same row; divide only when the key passes the row end
+                    dx += gap;
+                    if (Long.compareUnsigned(dx, width) >= 0) {
+                        dy += Long.divideUnsigned(dx, width);
+                        dx = Long.remainderUnsigned(dx, width);
+                    }
+                } else {
+                    dx = compactBits(key);
+                    dy = compactBits(key >>> 1);
+                }
+                if (dx >= width || Long.compareUnsigned(dy, height) >= 0) {
+                    throw in.corrupt();
+                }
+                xCoords[k] = (int)(stats.minX + dx);
+                yCoords[k] = (int)(stats.minY + dy);
+            }
+        }
+        if (in.pos != end) {
+            throw new IOException("Invalid compressed file format: block " + block + " has trailing bytes");
+        }
+    }
+
+    /**
+     * Reads the varints of one block, failing if one runs past the end of the block
+     */
+    private static final class BlockReader {
+        private final byte[] bytes;
+        private final int end;
+        private final int block;
+        int pos;
+
+        BlockReader(byte[] bytes, int pos, int end, int block) {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.end = end;
+            this.block = block;
+        }
+
+        long next() throws IOException {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos >= end || shift > 63) {
+                    throw corrupt();
+                }
+                b = bytes[pos++];
+                value |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        IOException corrupt() {
+            return new IOException("Invalid compressed file format: block " + block + " is corrupt");
+        }
+    }
+
+    /**
+     * Write points as a compressed file
+     * @param filename path of the file to create or replace
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param order order to write the points in
+     * @param blockPoints points per block
+     */
+    public static void write(String filename, int[] xCoords, int[] yCoords, int n, Order order,
+                             int blockPoints) throws IOException {
+        try (Writer writer = new Writer(filename, order, blockPoints)) {
+            writer.setDistinct(!PointStats.compute(xCoords, yCoords, n).hasDuplicates);
+            writer.write(xCoords, yCoords, 0, n);
+        }
+    }
+
+    /**
+     * Writer - streams points to a compressed file
+     * Points in input order are encoded as they arrive. Sorted orders need every point
+     * before the first block, so they are buffered until close; the sort also finds
+     * duplicates, so the header flag is exact for them.
+     */
+    public static class Writer implements PointStoreWriter {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ChannelOutput out;
+        private final Order order;
+        private final int blockPoints;
+        private final PointStats.Accumulator stats = new PointStats.Accumulator();
+        private boolean distinct;
+
+        // Sorted orders: points buffered until close
+        private int[] xBuffer = new int[0];
+        private int[] yBuffer = new int[0];
+
+        // Input order: block offsets so far and the state of the current block
+        private long[] index = new long[16];
+        private int numBlocks;
+        private int blockCount;
+        private long lastX, lastY;
+
+        /**
+         * Constructor
+         * @param filename path of the file to create or replace
+         * @param order order to write the points in
+         * @param blockPoints points per block
+         */
+        public Writer(String filename, Order order, int blockPoints) throws IOException {
+            if (blockPoints <= 0 || blockPoints > Integer.MAX_VALUE / MAX_POINT_BYTES) {
+                throw new IllegalArgumentException("Points per block must be between 1 and "
+                    + Integer.MAX_VALUE / MAX_POINT_BYTES);
+            }
+            this.order = order;
+            this.blockPoints = blockPoints;
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            channel.truncate(0);
+            out = new ChannelOutput(channel, HEADER_SIZE, ByteOrder.LITTLE_ENDIAN, null);
+        }
+
+        @Override
+        public void write(int[] xs, int[] ys, int offset, int count) throws IOException {
+            if (stats.count + count > Integer.MAX_VALUE) {
+                throw new IOException("Cannot write more than " + Integer.MAX_VALUE + " points");
+            }
+            int n = (int)stats.count;
+            stats.add(xs, ys, offset, count);
+            if (order != Order.INPUT) {
+                if (n + count > xBuffer.length) {
+                    int capacity = (int)Math.min(Integer.MAX_VALUE, Math.max(n + count, 2L * xBuffer.length));
+                    xBuffer = Arrays.copyOf(xBuffer, capacity);
+                    yBuffer = Arrays.copyOf(yBuffer, capacity);
+                }
+                System.arraycopy(xs, offset, xBuffer, n, count);
+                System.arraycopy(ys, offset, yBuffer, n, count);
+                return;
+            }
+
+            for (int k = offset; k < offset + count; k++) {
+                if (blockCount == 0) {
+                    startBlock();
+                }
+                ByteBuffer target = out.reserve(MAX_POINT_BYTES);
+                putVarint(target, zigZag(xs[k] - lastX));
+                putVarint(target, zigZag(ys[k] - lastY));
+                lastX = xs[k];
+                lastY = ys[k];
+                if (++blockCount == blockPoints) {
+                    blockCount = 0;
+                }
+            }
+        }
+
+        private void startBlock() {
+            if (numBlocks + 1 >= index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            index[numBlocks++] = out.position();
+            lastX = 0;
+            lastY = 0;
+        }
+
+        @Override
+        public void setDistinct(boolean distinct) {
+            this.distinct = distinct;
+        }
+
+        @Override
+        public long numPoints() {
+            return stats.count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                int n = (int)stats.count;
+                PointStats pointStats = stats.toStats(!distinct);
+                if (order != Order.INPUT) {
+                    // Sorted keys are the gaps written; equal neighbours are duplicate points
+                    long[] keys = sortedKeys(xBuffer, yBuffer, n, order, pointStats);
+                    xBuffer = null;
+                    yBuffer = null;
+                    boolean hasDuplicates = false;
+                    long key = 0;
+                    for (int k = 0; k < n; k++) {
+                        hasDuplicates |= k > 0 && keys[k] == keys[k - 1];
+                        if (k % blockPoints == 0) {
+                            startBlock();
+                            key = 0;
+                        }
+                        putVarint(out.reserve(MAX_POINT_BYTES), keys[k] - key);
+                        key = keys[k];
+                    }
+                    pointStats = stats.toStats(hasDuplicates);
+                }
+                out.flush();
+                long indexOffset = out.position();
+                index[numBlocks] = indexOffset;
+
+                ByteBuffer indexBytes = ByteBuffer.allocate((numBlocks + 1) * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                indexBytes.asLongBuffer().put(index, 0, numBlocks + 1);
+                writeFully(channel, indexBytes, indexOffset);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(8, pointStats.hasDuplicates ? FLAG_DUPLICATES : 0);
+                header.putInt(12, order.ordinal());
+                header.putLong(16, n);
+                header.putInt(24, pointStats.minX);
+                header.putInt(28, pointStats.maxX);
+                header.putInt(32, pointStats.minY);
+                header.putInt(36, pointStats.maxY);
+                header.putInt(40, blockPoints);
+                header.putInt(44, numBlocks);
+                header.putLong(48, indexOffset);
+                writeFully(channel, header, 0);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    // Unsigned sort keys of the points' offsets from (minX, minY), in ascending order.
+    // Row keys are dy * width + dx, which is below 2^64 since width and height are at most 2^32.
+    private static long[] sortedKeys(int[] xCoords, int[] yCoords, int n, Order order, PointStats stats) {
+        long width = (long)stats.maxX - stats.minX + 1;
+        long[] keys = new long[n];
+        for (int k = 0; k < n; k++) {
+            long dx = (long)xCoords[k] - stats.minX;
+            long dy = (long)yCoords[k] - stats.minY;
+            long key = order == Order.ROW ? dy * width + dx : mortonCode(dx, dy);
+            keys[k] = key ^ Long.MIN_VALUE; // flip the sign bit so a signed sort is an unsigned sort
+        }
+        Arrays.parallelSort(keys);
+        for (int k = 0; k < n; k++) {
+            keys[k] ^= Long.MIN_VALUE;
+        }
+        return keys;
+    }
+
+    /**
+     * Interleave the bits of two 32-bit values, x in the even bits and y in the odd bits
+     * @param x unsigned 32-bit value
+     * @param y unsigned 32-bit value
+     * @return Morton (Z-order) code
+     */
+    static long mortonCode(long x, long y) {
+        return spreadBits(x) | spreadBits(y) << 1;
+    }
+
+    // Move bit i of a 32-bit value to bit 2i
+    private static long spreadBits(long v) {
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v | v << 4) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v << 2) & 0x3333333333333333L;
+        v = (v | v << 1) & 0x5555555555555555L;
+        return v;
+    }
+
+    // Move bit 2i back to bit i, dropping the odd bits
+    private static long compactBits(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | v >>> 1) & 0x3333333333333333L;
+        v = (v | v >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | v >>> 4) & 0x00FF00FF00FF00FFL;
+        v = (v | v >>> 8) & 0x0000FFFF0000FFFFL;
+        v = (v | v >>> 16) & 0x00000000FFFFFFFFL;
+        return v;
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void putVarint(ByteBuffer out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte)((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte)v);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        int written = 0;
+        while (source.hasRemaining()) {
+            written += channel.write(source, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Get the order the points were written in
+     * @return point order from the header
+     */
+    public Order getOrder() {
+        return order;
+    }
+
+    @Override
+    public PointStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public int getX(int idx) {
+        if (idx < 0 || idx >= numPoints) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        }
+        return xCoords[idx];
+    }
+
+    @Override
+    public int getY(int idx) {
+        if (idx < 0 || idx >= numPoints) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        }
+        return yCoords[idx];
+    }
+
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        PointStore.checkRange(startIdx, count, numPoints, xs, ys, offset);
+        System.arraycopy(xCoords, startIdx, xs, offset, count);
+        System.arraycopy(yCoords, startIdx, ys, offset, count);
+    }
+
+    @Override
+    public int numPoints() {
+        return numPoints;
+    }
+
+    @Override
+    public void close() {
+        // No resources to close (file closed in constructor)
+    }
+}
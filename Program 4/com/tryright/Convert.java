@@ -0,0 +1,165 @@
+package com.tryright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Convert - converts a point file from one format to another
+ *
+ * Usage: java com.tryright.Convert <input_file> <output_file> [format]
+ *
+ * format is text, raw, v2, columnar or compressed; by default it follows the output
+ * file's extension (.dat: v2, .tpz: compressed, otherwise text). The input format is
+ * detected from its contents, as in Triangles; gzipped text is decompressed as it is read.
+ *
+ * A reader thread parses batches of points while the main thread writes the previous
+ * ones, so parsing and writing overlap. Text input is parsed a batch at a time and
+ * never held in memory whole; batches are recycled between the two threads.
+ */
+public class Convert {
+
+    // Points per batch (8 MB of coordinates) and batches in flight
+    static final int BATCH_POINTS = 1 << 20;
+    private static final int BATCHES = 3;
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java com.tryright.Convert <input_file> <output_file> [format]");
+            System.exit(1);
+        }
+
+        String inputName = args[0];
+        String outputName = args[1];
+        PointFormat format = PointFormat.forFilename(outputName);
+        if (args.length == 3) {
+            try {
+                format = PointFormat.parse(args[2]);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Unknown format: " + args[2]);
+                System.exit(1);
+            }
+        }
+
+        File inputFile = new File(inputName);
+        if (!inputFile.exists()) {
+            System.err.println("Error: No such file or directory");
+            System.exit(2);
+        }
+
+        if (!inputFile.canRead()) {
+            System.err.println("Error: Permission denied");
+            System.exit(2);
+        }
+
+        try {
+            if (inputFile.getCanonicalFile().equals(new File(outputName).getCanonicalFile())) {
+                System.err.println("Error: Input and output must be different files");
+                System.exit(1);
+            }
+            long count = convert(inputName, outputName, format);
+            System.out.println(count + " points written to " + outputName + " (" + format.name().toLowerCase() + ")");
+
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Convert a point file, deleting the output if anything goes wrong
+     * @param inputName file to read, in any format PointStoreRegistry detects
+     * @param outputName file to create or replace
+     * @param format output format
+     * @return number of points written
+     */
+    public static long convert(String inputName, String outputName, PointFormat format) throws IOException {
+        BlockingQueue<TextPointStore.Chunk> free = new ArrayBlockingQueue<>(BATCHES);
+        BlockingQueue<TextPointStore.Chunk> full = new ArrayBlockingQueue<>(BATCHES + 1);
+        for (int k = 0; k < BATCHES; k++) {
+            free.add(new TextPointStore.Chunk(BATCH_POINTS));
+        }
+        TextPointStore.Chunk end = new TextPointStore.Chunk(0);
+
+        // The reader's result is whether the points are known to be distinct
+        FutureTask<Boolean> reading = new FutureTask<>(() -> {
+            try {
+                return readBatches(inputName, free, full);
+            } finally {
+                full.put(end);
+            }
+        });
+        Thread reader = new Thread(reading, "convert-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean done = false;
+        try {
+            long numPoints;
+            try (PointStoreWriter writer = PointStoreWriter.create(outputName, format)) {
+                TextPointStore.Chunk chunk;
+                while ((chunk = full.take()) != end) {
+                    writer.write(chunk.xs, chunk.ys, 0, chunk.count);
+                    free.put(chunk);
+                }
+                writer.setDistinct(reading.get());
+                numPoints = writer.numPoints();
+            }
+            // close writes the header and flushes the tail, so the output is only complete once it returns
+            done = true;
+            return numPoints;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Error reading points: " + e.getCause());
+        } finally {
+            if (!done) {
+                reader.interrupt();
+                new File(outputName).delete();
+            }
+        }
+    }
+
+    // Fill free batches with points and pass them on; true if the input is known to have no duplicates
+    private static boolean readBatches(String inputName, BlockingQueue<TextPointStore.Chunk> free,
+                                       BlockingQueue<TextPointStore.Chunk> full)
+            throws IOException, InterruptedException {
+        String detected = PointStoreRegistry.detect(inputName);
+        if (detected.equals("text") || detected.equals("gzip")) {
+            InputStream in = PointStoreRegistry.openText(inputName);
+            try (TextPointStore.BatchReader batches = new TextPointStore.BatchReader(in)) {
+                while (true) {
+                    TextPointStore.Chunk chunk = free.take();
+                    if (!batches.read(chunk)) {
+                        return false;
+                    }
+                    full.put(chunk);
+                }
+            }
+        }
+
+        PointStore store = TrianglesUtils.createPointStore(inputName);
+        try {
+            int n = store.numPoints();
+            for (int start = 0; start < n; start += BATCH_POINTS) {
+                TextPointStore.Chunk chunk = free.take();
+                chunk.count = Math.min(BATCH_POINTS, n - start);
+                store.getPoints(start, chunk.count, chunk.xs, chunk.ys, 0);
+                full.put(chunk);
+            }
+            PointStats stats = store.getStats();
+            return stats != null && !stats.hasDuplicates;
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.tryright;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DirectionDictionary - interns reduced directions as dense int IDs, shared by all workers
+ *
+ * The four 90° rotations of a direction form one group and get consecutive IDs
+ * (group * 4 + rotation), so the left perpendicular of an ID is plain arithmetic.
+ * Per-corner counting then increments an int[] indexed by ID and keeps a list of
+ * touched IDs to read back and reset, instead of building a HashMap per corner.
+ *
+ * Best for data where many corners see the same directions (grids, small coordinate
+ * ranges): about 2x faster than HASH on a 70x70 grid. Random points in a wide box produce
+ * O(n^2) distinct directions (5.6M groups for test_long_list.txt), and both the dictionary
+ * and each worker's counter array grow with that, so there it is far slower than HASH.
+ */
+public class DirectionDictionary {
+
+    // Size of each worker's direct-mapped lookup cache (power of two)
+    private static final int LOCAL_CACHE_SIZE = 1 << 16;
+
+    // Canonical rotation (dx > 0, dy >= 0) packed into a long -> group number
+    private final ConcurrentHashMap<Long, Integer> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger nextGroup = new AtomicInteger();
+
+    /**
+     * Get the ID of the left perpendicular (90° counterclockwise) of a direction
+     * @param id direction ID
+     * @return ID of the direction rotated 90° counterclockwise
+     */
+    static int perpendicular(int id) {
+        return (id & ~3) | ((id + 1) & 3);
+    }
+
+    /**
+     * Get number of IDs handed out so far (IDs are 0 .. size() - 1)
+     * @return current number of IDs
+     */
+    public int size() {
+        return nextGroup.get() * 4;
+    }
+
+    /**
+     * Intern a reduced, nonzero direction whose components fit in an int
+     * @param dx reduced X component
+     * @param dy reduced Y component
+     * @return dense direction ID
+     */
+    int intern(int dx, int dy) {
+        // Rotate clockwise until the direction is in the canonical quadrant, counting turns
+        int rotation = 0;
+        while (!(dx > 0 && dy >= 0)) {
+            int temp = dx;
+            dx = dy;
+            dy = -temp;
+            rotation++;
+        }
+
+        Integer group = groups.computeIfAbsent(pack(dx, dy), k -> nextGroup.getAndIncrement());
+        return group * 4 + rotation;
+    }
+
+    private static long pack(int dx, int dy) {
+        return ((long)dx << 32) | (dy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Count right triangles using this dictionary; safe to call from many threads at once.
+     * Falls back to the HashMap kernel if the coordinates do not fit in 32-bit deltas.
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @return count of right triangles
+     */
+    public int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx) {
+        return countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, new Scratch());
+    }
+
+    /**
+     * A worker's lookup cache, counters and touched list, kept between calls so a worker
+     * that counts many ranges allocates them once. Not thread-safe.
+     */
+    static final class Scratch {
+        // Dictionary the cached IDs belong to
+        private DirectionDictionary owner;
+        // Key 0 would be the zero direction, which is never looked up, so it marks an empty slot
+        private final long[] cacheKeys = new long[LOCAL_CACHE_SIZE];
+        private final int[] cacheIds = new int[LOCAL_CACHE_SIZE];
+        private int[] counts = new int[64];
+        private int[] touched = new int[0];
+    }
+
+    /**
+     * Count right triangles using this dictionary and a worker's scratch
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @param scratch the calling worker's scratch, used by one thread at a time
+     * @return count of right triangles
+     */
+    int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx, Scratch scratch) {
+        if (n < 3) {
+            return 0;
+        }
+
+        // Make sure indices are valid
+        if (startIdx < 0) startIdx = 0;
+        if (endIdx > n) endIdx = n;
+        if (startIdx >= endIdx) return 0;
+
+        // Packing needs every delta to fit in an int
+        if (!TrianglesUtils.fitsExactDotProduct(xCoords, yCoords, n)) {
+            return TrianglesUtils.countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, Kernel.HASH);
+        }
+
+        // Worker-local state, reused for every corner; cached IDs of another dictionary mean nothing here
+        if (scratch.owner != this) {
+            Arrays.fill(scratch.cacheKeys, 0);
+            scratch.owner = this;
+        }
+        if (scratch.counts.length < size()) {
+            scratch.counts = new int[size()];
+        }
+        if (scratch.touched.length < n) {
+            scratch.touched = new int[n];
+        }
+        long[] cacheKeys = scratch.cacheKeys;
+        int[] cacheIds = scratch.cacheIds;
+        int[] counts = scratch.counts;
+        int[] touched = scratch.touched;
+
+        int totalCount = 0;
+
+        for (int i = startIdx; i < endIdx; i++) {
+            int vertexX = xCoords[i];
+            int vertexY = yCoords[i];
+            int numTouched = 0;
+            int duplicates = 0;
+
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue; // Skip itself
+
+                int deltaX = xCoords[j] - vertexX;
+                int deltaY = yCoords[j] - vertexY;
+                if (deltaX == 0 && deltaY == 0) {
+                    duplicates++;
+                    continue;
+                }
+
+                // Same reduction as Direction
+                int divisor = gcd(Math.abs(deltaX), Math.abs(deltaY));
+                deltaX /= divisor;
+                deltaY /= divisor;
+
+                // Direct-mapped cache in front of the shared dictionary
+                long key = pack(deltaX, deltaY);
+                int slot = (int)((key * 0x9E3779B97F4A7C15L) >>> 48) & (LOCAL_CACHE_SIZE - 1);
+                int id;
+                if (cacheKeys[slot] == key) {
+                    id = cacheIds[slot];
+                } else {
+                    id = intern(deltaX, deltaY);
+                    cacheKeys[slot] = key;
+                    cacheIds[slot] = id;
+                }
+
+                if (id >= counts.length) {
+                    counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+                }
+                if (counts[id]++ == 0) {
+                    touched[numTouched++] = id;
+                }
+            }
+
+            // Zero direction is its own perpendicular, as in the HashMap kernel
+            totalCount += duplicates * duplicates;
+
+            // Read back touched IDs, then reset only those slots
+            for (int t = 0; t < numTouched; t++) {
+                int perp = perpendicular(touched[t]);
+                if (perp < counts.length) {
+                    totalCount += counts[touched[t]] * counts[perp];
+                }
+            }
+            for (int t = 0; t < numTouched; t++) {
+                counts[touched[t]] = 0;
+            }
+        }
+
+        scratch.counts = counts;
+        return totalCount;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int temp = b;
+            b = a % b;
+            a = temp;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,100 @@
+package com.tryright;
+
+/**
+ * DirectionTable - a reusable open-addressing map from reduced direction to count
+ *
+ * Does what countDirections and countPerpendicularPairs do for one corner, without a
+ * HashMap, a Direction and an Integer per point. A worker keeps one table and reuses it
+ * for every corner: only the slots a corner touched are cleared afterwards, so the
+ * cost per corner is O(n) however large the table has grown. Not thread-safe.
+ */
+class DirectionTable {
+
+    private long[] keyX = new long[0];
+    private long[] keyY = new long[0];
+    private int[] counts = new int[0];
+    private int[] touched = new int[0];
+    private int mask = -1;
+
+    /**
+     * Count triangles with the right angle at one point, as the HashMap kernel does
+     * (d duplicates of the corner add d*d)
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param corner index of the corner
+     * @return count of right triangles at the corner
+     */
+    int countCorner(int[] xCoords, int[] yCoords, int n, int corner) {
+        // At most n - 1 directions; keep the load factor at or below 1/2
+        if (counts.length < 2 * n) {
+            int capacity = Integer.highestOneBit(Math.max(2, 2 * n - 1)) << 1;
+            keyX = new long[capacity];
+            keyY = new long[capacity];
+            counts = new int[capacity];
+            mask = capacity - 1;
+        }
+        // Capacity is rounded up, so a larger n can still fit the old table
+        if (touched.length < n) {
+            touched = new int[n];
+        }
+
+        long vertexX = xCoords[corner];
+        long vertexY = yCoords[corner];
+        int numTouched = 0;
+        int duplicates = 0;
+        for (int j = 0; j < n; j++) {
+            if (j == corner) continue;
+
+            long dx = xCoords[j] - vertexX;
+            long dy = yCoords[j] - vertexY;
+            if (dx == 0 && dy == 0) {
+                duplicates++;
+                continue;
+            }
+
+            // Same reduction as Direction
+            long divisor = gcd(Math.abs(dx), Math.abs(dy));
+            dx /= divisor;
+            dy /= divisor;
+
+            int slot = find(dx, dy);
+            if (counts[slot]++ == 0) {
+                keyX[slot] = dx;
+                keyY[slot] = dy;
+                touched[numTouched++] = slot;
+            }
+        }
+
+        // Zero direction is its own perpendicular, as in the HashMap kernel
+        int count = duplicates * duplicates;
+        for (int t = 0; t < numTouched; t++) {
+            int slot = touched[t];
+            int perp = find(-keyY[slot], keyX[slot]);
+            count += counts[slot] * counts[perp];
+        }
+        for (int t = 0; t < numTouched; t++) {
+            counts[touched[t]] = 0;
+        }
+        return count;
+    }
+
+    // Slot holding the direction, or the empty slot where it would go
+    private int find(long dx, long dy) {
+        long hash = (dx * 0x9E3779B97F4A7C15L + dy) * 0xC2B2AE3D27D4EB4FL;
+        int slot = (int)(hash >>> 32) & mask;
+        while (counts[slot] != 0 && (keyX[slot] != dx || keyY[slot] != dy)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long temp = b;
+            b = a % b;
+            a = temp;
+        }
+        return a;
+    }
+}
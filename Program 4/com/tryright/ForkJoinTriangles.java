@@ -0,0 +1,222 @@
+package com.tryright;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ForkJoinTriangles - counts right triangles on a work-stealing ForkJoinPool
+ *
+ * The corner range is split in halves down to small leaves. A worker pushes the halves
+ * it does not start on onto its own deque, and idle workers steal the largest ones, so a
+ * worker that gets descheduled or hits corners with many directions just ends up doing
+ * fewer leaves instead of holding up the run. The pool is kept between counts.
+ *
+ * Every pool thread keeps one DirectionTable and one dictionary scratch for as long as the
+ * engine lives, so the hash and dictionary kernels allocate nothing per leaf. A calling
+ * thread that runs leaves while it waits shares a single extra scratch, so outside threads
+ * never add to the set. One count runs at a time.
+ */
+public class ForkJoinTriangles implements TriangleEngine {
+
+    // Leaves per worker: enough for stealing to even out skew, few enough that splitting costs nothing
+    private static final int LEAVES_PER_WORKER = 16;
+
+    private final ForkJoinPool pool;
+    private final Kernel kernel;
+
+    // Scratch of every thread that has run a leaf, for the per-worker report
+    private final Queue<Scratch> allScratch = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> {
+        Scratch created = new Scratch("Worker-" + nextWorker.getAndIncrement());
+        allScratch.add(created);
+        return created;
+    });
+    // Used by the thread inside count if it runs leaves itself; counts are synchronized, so one at a time
+    private final Scratch callerScratch = new Scratch("caller");
+
+    // One thread's reusable state
+    private static class Scratch {
+        final String name;
+        final DirectionTable table = new DirectionTable();
+        final DirectionDictionary.Scratch dictionary = new DirectionDictionary.Scratch();
+        volatile WorkerStats stats;
+
+        Scratch(String name) {
+            this.name = name;
+            this.stats = new WorkerStats(name);
+        }
+    }
+
+    /**
+     * Constructor with the AUTO kernel
+     * @param parallelism number of worker threads
+     */
+    public ForkJoinTriangles(int parallelism) {
+        this(parallelism, Kernel.AUTO);
+    }
+
+    /**
+     * Constructor
+     * @param parallelism number of worker threads
+     * @param kernel counting algorithm used by count
+     */
+    public ForkJoinTriangles(int parallelism, Kernel kernel) {
+        pool = new ForkJoinPool(parallelism);
+        this.kernel = kernel;
+        allScratch.add(callerScratch);
+    }
+
+    /**
+     * Get the number of worker threads
+     * @return parallelism of the pool
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Count right triangles over all n corners
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param kernel counting algorithm; HASH (and AUTO above the brute-force crossover) uses
+     *               each worker's DirectionTable, DICTIONARY shares one fresh dictionary
+     * @param stats stats of the n points, or null if unknown
+     * @return count of right triangles
+     * @throws IllegalStateException if a worker fails
+     */
+    public synchronized int countRightTriangles(int[] xCoords, int[] yCoords, int n, Kernel kernel,
+                                                PointStats stats) {
+        for (Scratch s : allScratch) {
+            s.stats = new WorkerStats(s.name);
+        }
+        if (n < 3) {
+            return 0;
+        }
+
+        // Same kernel choice as TrianglesUtils.countRightTriangles
+        boolean bruteForce = (kernel == Kernel.BRUTE_FORCE
+            || (kernel == Kernel.AUTO && n < TrianglesUtils.BRUTE_FORCE_CROSSOVER))
+            && TrianglesUtils.fitsExactDotProduct(xCoords, yCoords, n, stats);
+        DirectionDictionary dictionary = kernel == Kernel.DICTIONARY ? new DirectionDictionary() : null;
+        boolean mayHaveDuplicates = TrianglesUtils.mayHaveDuplicates(stats);
+
+        int grain = Math.max(1, n / (pool.getParallelism() * LEAVES_PER_WORKER));
+        Job job = new Job(this, xCoords, yCoords, n, grain, bruteForce, mayHaveDuplicates, dictionary);
+        try {
+            return pool.invoke(new Range(job, 0, n));
+        } catch (RuntimeException | Error e) {
+            throw new IllegalStateException("Error counting triangles: " + e, e);
+        }
+    }
+
+    // Pool threads keep their own scratch; any other thread is the one waiting in count
+    private Scratch scratch() {
+        Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)current).getPool() == pool) {
+            return scratch.get();
+        }
+        return callerScratch;
+    }
+
+    @Override
+    public synchronized TriangleResult count(int[] xCoords, int[] yCoords, int n, PointStats stats) {
+        long start = System.nanoTime();
+        int count = countRightTriangles(xCoords, yCoords, n, kernel, stats);
+        return new TriangleResult(count, n, 0, System.nanoTime() - start, getWorkerStats());
+    }
+
+    /**
+     * Get per-worker stats of the last count, for threads that ran at least one leaf
+     * @return stats of each worker that took part
+     */
+    public WorkerStats[] getWorkerStats() {
+        List<WorkerStats> workers = new ArrayList<>();
+        for (Scratch s : allScratch) {
+            if (s.stats.getVertices() > 0) {
+                workers.add(s.stats);
+            }
+        }
+        return workers.toArray(new WorkerStats[0]);
+    }
+
+    /**
+     * Shut the pool down
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // What every leaf of one count shares
+    private static class Job {
+        final ForkJoinTriangles engine;
+        final int[] xCoords, yCoords;
+        final int n, grain;
+        final boolean bruteForce, mayHaveDuplicates;
+        final DirectionDictionary dictionary;
+
+        Job(ForkJoinTriangles engine, int[] xCoords, int[] yCoords, int n, int grain,
+            boolean bruteForce, boolean mayHaveDuplicates, DirectionDictionary dictionary) {
+            this.engine = engine;
+            this.xCoords = xCoords;
+            this.yCoords = yCoords;
+            this.n = n;
+            this.grain = grain;
+            this.bruteForce = bruteForce;
+            this.mayHaveDuplicates = mayHaveDuplicates;
+            this.dictionary = dictionary;
+        }
+    }
+
+    // A range of corners, split in halves until it is at most grain corners
+    private static class Range extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Job job;
+        private final int startIdx, endIdx;
+
+        Range(Job job, int startIdx, int endIdx) {
+            this.job = job;
+            this.startIdx = startIdx;
+            this.endIdx = endIdx;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (endIdx - startIdx > job.grain) {
+                int mid = (startIdx + endIdx) >>> 1;
+                Range right = new Range(job, mid, endIdx);
+                right.fork();
+                int left = new Range(job, startIdx, mid).compute();
+                return left + right.join();
+            }
+
+            Scratch mine = job.engine.scratch();
+            WorkerStats stats = mine.stats;
+            stats.start();
+            int count = 0;
+            if (job.bruteForce) {
+                count = TrianglesUtils.countRightTrianglesBruteForce(job.xCoords, job.yCoords, job.n, startIdx, endIdx,
+                    job.mayHaveDuplicates);
+            } else if (job.dictionary != null) {
+                count = job.dictionary.countRightTriangles(job.xCoords, job.yCoords, job.n, startIdx, endIdx,
+                    mine.dictionary);
+            } else {
+                for (int i = startIdx; i < endIdx; i++) {
+                    count += mine.table.countCorner(job.xCoords, job.yCoords, job.n, i);
+                }
+            }
+            stats.stop();
+            stats.addVertices(endIdx - startIdx);
+            return count;
+        }
+    }
+}
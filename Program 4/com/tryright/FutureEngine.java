@@ -0,0 +1,91 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FutureEngine - counts right triangles on a fixed thread pool, one Future per range
+ *
+ * The corners are split into one contiguous range per thread, as ThreadTriangles used
+ * to do with raw threads, but the pool's threads are kept between counts. Kept as the
+ * static-split baseline to compare ForkJoinTriangles against.
+ */
+public class FutureEngine implements TriangleEngine {
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final Kernel kernel;
+
+    /**
+     * Constructor
+     * @param threads number of pool threads and ranges
+     * @param kernel counting algorithm; DICTIONARY shares one fresh dictionary per count
+     */
+    public FutureEngine(int threads, Kernel kernel) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.threads = threads;
+        this.kernel = kernel;
+        AtomicInteger nextThread = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, task -> {
+            // Daemon, so an engine that is never closed does not keep the JVM alive
+            Thread thread = new Thread(task, "FutureEngine-" + nextThread.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public TriangleResult count(int[] xCoords, int[] yCoords, int n, PointStats stats) throws IOException {
+        long start = System.nanoTime();
+        int ranges = Math.max(1, Math.min(threads, n));
+        int pointsPerRange = (n + ranges - 1) / ranges;
+        DirectionDictionary dictionary = kernel == Kernel.DICTIONARY ? new DirectionDictionary() : null;
+
+        WorkerStats[] workers = new WorkerStats[ranges];
+        List<Future<Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < ranges; i++) {
+            int startIdx = Math.min(i * pointsPerRange, n);
+            int endIdx = Math.min(startIdx + pointsPerRange, n);
+            WorkerStats worker = new WorkerStats("Worker-" + i, endIdx - startIdx);
+            workers[i] = worker;
+            counts.add(pool.submit(() -> {
+                worker.start();
+                int count = dictionary != null
+                    ? dictionary.countRightTriangles(xCoords, yCoords, n, startIdx, endIdx)
+                    : TrianglesUtils.countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, kernel, null, stats);
+                worker.stop();
+                return count;
+            }));
+        }
+
+        int total = 0;
+        try {
+            for (Future<Integer> count : counts) {
+                total += count.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error counting triangles: " + e.getCause(), e.getCause());
+        } finally {
+            for (Future<Integer> count : counts) {
+                count.cancel(true);
+            }
+        }
+        return new TriangleResult(total, n, 0, System.nanoTime() - start, workers);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
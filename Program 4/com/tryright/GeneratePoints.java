@@ -0,0 +1,233 @@
+package com.tryright;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * GeneratePoints - writes synthetic point files of any size for benchmarking
+ *
+ * Usage: java com.tryright.GeneratePoints <output_file> <num_points> <distribution> [seed] [format]
+ *
+ * distribution is one of:
+ *   uniform     uniform in [-1000000, 1000000] on both axes
+ *   clustered   16 Gaussian clusters (sigma 10000) around seeded centers
+ *   grid        the integer grid 0..side-1 on both axes, row by row (side = ceil(sqrt(n)))
+ *   duplicates  drawn from a pool of n / 100 + 1 distinct points, so most points repeat
+ *   narrow      x uniform in [-1000000, 1000000], y in [0, 16)
+ * seed defaults to 1; format defaults to the one the output file's extension implies.
+ *
+ * The same seed always gives the same file: points are generated in fixed blocks, each
+ * from its own random stream keyed by (seed, block), so blocks are generated in parallel
+ * on a ForkJoinPool while the main thread writes finished blocks in order.
+ */
+public class GeneratePoints {
+
+    /**
+     * Shapes of generated point sets
+     */
+    public enum Distribution {
+        UNIFORM, CLUSTERED, GRID, DUPLICATES, NARROW
+    }
+
+    static final int RANGE = 1_000_000;
+    static final int CLUSTERS = 16;
+    static final int CLUSTER_SIGMA = 10_000;
+    static final int NARROW_HEIGHT = 16;
+
+    // Points per generated block (8 MB of coordinates); fixed so output does not depend on threads
+    static final int BLOCK_POINTS = 1 << 20;
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: java com.tryright.GeneratePoints <output_file> <num_points> <distribution> [seed] [format]");
+            System.exit(1);
+        }
+
+        String outputName = args[0];
+        int numPoints = 0;
+        Distribution distribution = null;
+        long seed = 1;
+        PointFormat format = PointFormat.forFilename(outputName);
+        try {
+            numPoints = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Number of points must be an integer");
+            System.exit(1);
+        }
+        if (numPoints < 0) {
+            System.err.println("Error: Number of points cannot be negative");
+            System.exit(1);
+        }
+        try {
+            distribution = Distribution.valueOf(args[2].trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Unknown distribution: " + args[2]);
+            System.exit(1);
+        }
+        if (args.length >= 4) {
+            try {
+                seed = Long.parseLong(args[3]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Seed must be an integer");
+                System.exit(1);
+            }
+        }
+        if (args.length == 5) {
+            try {
+                format = PointFormat.parse(args[4]);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Unknown format: " + args[4]);
+                System.exit(1);
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            generate(outputName, numPoints, distribution, seed, format, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%d %s points written to %s (%s) in %.2f s%n", numPoints,
+                distribution.name().toLowerCase(), outputName, format.name().toLowerCase(),
+                (System.nanoTime() - start) / 1e9);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Generate a point file, deleting it if anything goes wrong
+     * @param outputName file to create or replace
+     * @param numPoints number of points
+     * @param distribution shape of the point set
+     * @param seed random seed
+     * @param format output format
+     * @param parallelism number of generating threads
+     */
+    public static void generate(String outputName, int numPoints, Distribution distribution, long seed,
+                                PointFormat format, int parallelism) throws IOException {
+        int[] centers = clusterCenters(seed);
+        int blocks = (int)(((long)numPoints + BLOCK_POINTS - 1) / BLOCK_POINTS);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<Future<int[][]>> pending = new ArrayDeque<>();
+        boolean done = false;
+        try (PointStoreWriter writer = PointStoreWriter.create(outputName, format)) {
+            // Grid points never repeat; the others may
+            writer.setDistinct(distribution == Distribution.GRID);
+
+            // Keep every worker busy plus one block ready to write, and no more in memory
+            int submitted = 0;
+            for (int written = 0; written < blocks; written++) {
+                while (submitted < blocks && pending.size() <= parallelism) {
+                    long first = (long)submitted * BLOCK_POINTS;
+                    int count = (int)Math.min(BLOCK_POINTS, numPoints - first);
+                    int block = submitted++;
+                    pending.add(pool.submit(() -> generateBlock(distribution, seed, centers, numPoints, block,
+                        first, count)));
+                }
+                int[][] points = pending.poll().get();
+                writer.write(points[0], points[1], 0, points[0].length);
+            }
+            done = true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating points");
+        } catch (ExecutionException e) {
+            throw new IOException("Error generating points: " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (!done) {
+                new File(outputName).delete();
+            }
+        }
+    }
+
+    // Cluster centers as x, y pairs, drawn from the seed alone so every block agrees on them
+    private static int[] clusterCenters(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] centers = new int[2 * CLUSTERS];
+        for (int k = 0; k < centers.length; k++) {
+            centers[k] = random.nextInt(-RANGE, RANGE + 1);
+        }
+        return centers;
+    }
+
+    /**
+     * Generate one block of points
+     * @param distribution shape of the point set
+     * @param seed random seed
+     * @param centers cluster centers from clusterCenters
+     * @param numPoints total points in the file
+     * @param block block number
+     * @param first index of the block's first point
+     * @param count points in the block
+     * @return X values and Y values
+     */
+    static int[][] generateBlock(Distribution distribution, long seed, int[] centers, int numPoints, int block,
+                                 long first, int count) {
+        // An independent stream per block: seed and block number mixed into one seed
+        SplittableRandom random = new SplittableRandom(mix(seed * 0x9E3779B97F4A7C15L + block));
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        switch (distribution) {
+            case UNIFORM:
+                for (int k = 0; k < count; k++) {
+                    xs[k] = random.nextInt(-RANGE, RANGE + 1);
+                    ys[k] = random.nextInt(-RANGE, RANGE + 1);
+                }
+                break;
+            case CLUSTERED:
+                for (int k = 0; k < count; k++) {
+                    int cluster = random.nextInt(CLUSTERS);
+                    xs[k] = gaussian(random, centers[2 * cluster]);
+                    ys[k] = gaussian(random, centers[2 * cluster + 1]);
+                }
+                break;
+            case GRID:
+                int side = (int)Math.ceil(Math.sqrt(numPoints));
+                for (int k = 0; k < count; k++) {
+                    xs[k] = (int)((first + k) % side);
+                    ys[k] = (int)((first + k) / side);
+                }
+                break;
+            case DUPLICATES:
+                // Pool point p is a hash of (seed, p), so the pool needs no memory
+                int pool = numPoints / 100 + 1;
+                for (int k = 0; k < count; k++) {
+                    long hash = mix(seed ^ mix(random.nextInt(pool)));
+                    xs[k] = (int)Math.floorMod(hash, 2L * RANGE + 1) - RANGE;
+                    ys[k] = (int)Math.floorMod(hash >>> 32, 2L * RANGE + 1) - RANGE;
+                }
+                break;
+            default:
+                for (int k = 0; k < count; k++) {
+                    xs[k] = random.nextInt(-RANGE, RANGE + 1);
+                    ys[k] = random.nextInt(NARROW_HEIGHT);
+                }
+                break;
+        }
+        return new int[][] {xs, ys};
+    }
+
+    private static int gaussian(SplittableRandom random, int center) {
+        // Box-Muller; SplittableRandom has no nextGaussian
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        double g = Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+        long value = center + Math.round(g * CLUSTER_SIGMA);
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    // SplitMix64 finalizer: spreads nearby inputs over all 64 bits
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
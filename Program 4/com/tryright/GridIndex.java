@@ -0,0 +1,141 @@
+package com.tryright;
+
+/**
+ * GridIndex - uniform grid over a PointStore for rectangular region queries
+ *
+ * Built once, then read-only, so any number of threads can query it at the same time.
+ * Points are sorted by cell (row-major) so each row of a query touches one
+ * contiguous slice of the coordinate arrays.
+ */
+public class GridIndex {
+
+    // Aim for a few points per cell: enough to amortize cell overhead, few enough to prune well
+    private static final int POINTS_PER_CELL = 4;
+
+    private final int minX, minY;
+    private final long spanX, spanY; // max - min + 1, as long so full int range fits
+    private final int cols, rows;
+
+    // cellStart[c] .. cellStart[c + 1] is the slice of sortedX/sortedY in cell c
+    private final int[] cellStart;
+    private final int[] sortedX;
+    private final int[] sortedY;
+    private final int numPoints;
+
+    /**
+     * Constructor - copies the points out of the store and buckets them by cell
+     * @param store PointStore containing the points (can be closed afterwards)
+     */
+    public GridIndex(PointStore store) {
+        numPoints = store.numPoints();
+
+        int[] xCoords = new int[numPoints];
+        int[] yCoords = new int[numPoints];
+        int loX = Integer.MAX_VALUE, hiX = Integer.MIN_VALUE;
+        int loY = Integer.MAX_VALUE, hiY = Integer.MIN_VALUE;
+        store.getPoints(0, numPoints, xCoords, yCoords, 0);
+        for (int k = 0; k < numPoints; k++) {
+            loX = Math.min(loX, xCoords[k]);
+            hiX = Math.max(hiX, xCoords[k]);
+            loY = Math.min(loY, yCoords[k]);
+            hiY = Math.max(hiY, yCoords[k]);
+        }
+        if (numPoints == 0) {
+            loX = hiX = loY = hiY = 0;
+        }
+
+        minX = loX;
+        minY = loY;
+        spanX = (long)hiX - loX + 1;
+        spanY = (long)hiY - loY + 1;
+
+        // Square-ish grid with about POINTS_PER_CELL points per cell, never more cells than the span
+        int side = Math.max(1, (int)Math.ceil(Math.sqrt((double)numPoints / POINTS_PER_CELL)));
+        cols = (int)Math.min(side, spanX);
+        rows = (int)Math.min(side, spanY);
+
+        // Counting sort by cell: count, prefix sum, scatter
+        cellStart = new int[cols * rows + 1];
+        int[] cellOf = new int[numPoints];
+        for (int k = 0; k < numPoints; k++) {
+            cellOf[k] = cellRow(yCoords[k]) * cols + cellCol(xCoords[k]);
+            cellStart[cellOf[k] + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        sortedX = new int[numPoints];
+        sortedY = new int[numPoints];
+        int[] next = new int[cols * rows];
+        System.arraycopy(cellStart, 0, next, 0, cols * rows);
+        for (int k = 0; k < numPoints; k++) {
+            int slot = next[cellOf[k]]++;
+            sortedX[slot] = xCoords[k];
+            sortedY[slot] = yCoords[k];
+        }
+    }
+
+    private int cellCol(long x) {
+        return (int)((x - minX) * cols / spanX);
+    }
+
+    private int cellRow(long y) {
+        return (int)((y - minY) * rows / spanY);
+    }
+
+    /**
+     * Get number of indexed points
+     * @return number of points
+     */
+    public int numPoints() {
+        return numPoints;
+    }
+
+    /**
+     * Count right triangles whose three corners all lie in the closed box [x1, x2] x [y1, y2].
+     * Since the box is convex this is exactly the triangles lying entirely inside it.
+     * Only cells overlapping the box are scanned.
+     * @param x1 left edge (inclusive)
+     * @param y1 bottom edge (inclusive)
+     * @param x2 right edge (inclusive)
+     * @param y2 top edge (inclusive)
+     * @return count of right triangles inside the region
+     */
+    public int countInRegion(int x1, int y1, int x2, int y2) {
+        // Clip the query to the indexed bounds
+        long loX = Math.max(x1, minX);
+        long hiX = Math.min(x2, minX + spanX - 1);
+        long loY = Math.max(y1, minY);
+        long hiY = Math.min(y2, minY + spanY - 1);
+        if (numPoints == 0 || loX > hiX || loY > hiY) {
+            return 0;
+        }
+
+        int col1 = cellCol(loX), col2 = cellCol(hiX);
+        int row1 = cellRow(loY), row2 = cellRow(hiY);
+
+        // Size the candidate arrays once from the cell counts
+        int candidates = 0;
+        for (int row = row1; row <= row2; row++) {
+            candidates += cellStart[row * cols + col2 + 1] - cellStart[row * cols + col1];
+        }
+
+        int[] regionX = new int[candidates];
+        int[] regionY = new int[candidates];
+        int count = 0;
+        for (int row = row1; row <= row2; row++) {
+            int end = cellStart[row * cols + col2 + 1];
+            for (int k = cellStart[row * cols + col1]; k < end; k++) {
+                // Edge cells can hold points just outside the box
+                if (sortedX[k] >= loX && sortedX[k] <= hiX && sortedY[k] >= loY && sortedY[k] <= hiY) {
+                    regionX[count] = sortedX[k];
+                    regionY[count] = sortedY[k];
+                    count++;
+                }
+            }
+        }
+
+        return TrianglesUtils.countRightTriangles(regionX, regionY, count, 0, count);
+    }
+}
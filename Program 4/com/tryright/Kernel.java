@@ -0,0 +1,25 @@
+package com.tryright;
+
+/**
+ * Kernel - algorithm used by countRightTriangles for each corner
+ */
+public enum Kernel {
+    /** Brute force below the crossover, HashMap above it */
+    AUTO,
+    /** Per-corner HashMap of Direction counts, O(n^2) */
+    HASH,
+    /** Allocation-free dot products, O(n^3); falls back to HASH if not exact in 64 bits */
+    BRUTE_FORCE,
+    /** Shared DirectionDictionary with dense int IDs; falls back to HASH if not exact in 64 bits */
+    DICTIONARY;
+
+    /**
+     * Parse a kernel name from the command line (case-insensitive, '-' or '_')
+     * @param name kernel name, e.g. "hash" or "brute-force"
+     * @return matching kernel
+     * @throws IllegalArgumentException if no kernel has that name
+     */
+    public static Kernel parse(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,163 @@
+package com.tryright;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * KernelDiagnostics - shape of the per-corner direction tables, sampled while counting
+ *
+ * Records, for every sampleEvery-th corner the HashMap kernel handles:
+ * - distinct directions per corner (power-of-two buckets)
+ * - bucket chain position of each direction in a HashMap laid out like the kernel's
+ *   (same spread hash and table size), i.e. how many entries a lookup walks past
+ * - the fraction of directions that have a left-perpendicular partner
+ * These drive the choice of map size, the dictionary kernel and a normalization cache.
+ */
+public class KernelDiagnostics {
+
+    // Histogram sizes: 2^0 .. 2^31 distinct directions, probe lengths 1 .. 15 and 16+
+    private static final int SIZE_BUCKETS = 32;
+    private static final int PROBE_BUCKETS = 16;
+
+    private final int sampleEvery;
+
+    private final long[] distinctHistogram = new long[SIZE_BUCKETS];
+    private final long[] probeHistogram = new long[PROBE_BUCKETS];
+    private long sampledCorners;
+    private long totalDirections;
+    private long directionsWithPartner;
+    private long totalPoints;
+
+    /**
+     * Constructor
+     * @param sampleEvery record every sampleEvery-th corner (1 records all)
+     */
+    public KernelDiagnostics(int sampleEvery) {
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException("Sample interval must be positive");
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * Check if a corner should be sampled
+     * @param idx corner index
+     * @return true if record should be called for this corner
+     */
+    boolean shouldSample(int idx) {
+        return idx % sampleEvery == 0;
+    }
+
+    /**
+     * Record one corner's direction table; safe to call from many worker threads
+     * @param directionCounts direction table of the corner
+     * @param n number of points the table was built from
+     */
+    void record(Map<TrianglesUtils.Direction, Integer> directionCounts, int n) {
+        int distinct = directionCounts.size();
+
+        // Same table size HashMap picks for the kernel's initial capacity, doubled at 0.75 load
+        int initial = Math.max(1, (n + 2) / 3);
+        int capacity = initial == 1 ? 1 : Integer.highestOneBit(initial - 1) << 1;
+        while (distinct > capacity * 3 / 4) {
+            capacity <<= 1;
+        }
+
+        // The k-th key placed in a bucket takes k probes to find
+        int[] chainLengths = new int[capacity];
+        long[] probes = new long[PROBE_BUCKETS];
+        int withPartner = 0;
+        for (TrianglesUtils.Direction dir : directionCounts.keySet()) {
+            int h = dir.hashCode();
+            int bucket = (h ^ (h >>> 16)) & (capacity - 1);
+            int probe = ++chainLengths[bucket];
+            probes[Math.min(probe, PROBE_BUCKETS) - 1]++;
+
+            if (directionCounts.containsKey(new TrianglesUtils.Direction(-dir.dy, dir.dx))) {
+                withPartner++;
+            }
+        }
+
+        synchronized (this) {
+            sampledCorners++;
+            totalPoints += n;
+            totalDirections += distinct;
+            directionsWithPartner += withPartner;
+            distinctHistogram[distinct == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(distinct)]++;
+            for (int k = 0; k < PROBE_BUCKETS; k++) {
+                probeHistogram[k] += probes[k];
+            }
+        }
+    }
+
+    public synchronized long getSampledCorners() {
+        return sampledCorners;
+    }
+
+    /**
+     * Get the distinct-directions histogram; bucket k counts corners with 2^k .. 2^(k+1) - 1
+     * @return copy of the histogram
+     */
+    synchronized long[] getDistinctHistogram() {
+        return distinctHistogram.clone();
+    }
+
+    /**
+     * Get the probe-length histogram; bucket k counts directions found after k + 1 probes
+     * @return copy of the histogram
+     */
+    synchronized long[] getProbeHistogram() {
+        return probeHistogram.clone();
+    }
+
+    /**
+     * Fraction of sampled directions whose left perpendicular also occurs at the same corner
+     * @return fraction in [0, 1], or 0 if nothing was sampled
+     */
+    public synchronized double partnerFraction() {
+        return totalDirections == 0 ? 0 : (double)directionsWithPartner / totalDirections;
+    }
+
+    /**
+     * Mean number of HashMap entries walked per lookup
+     * @return mean probe length, or 0 if nothing was sampled
+     */
+    public synchronized double meanProbeLength() {
+        long probes = 0, keys = 0;
+        for (int k = 0; k < PROBE_BUCKETS; k++) {
+            probes += (k + 1) * probeHistogram[k];
+            keys += probeHistogram[k];
+        }
+        return keys == 0 ? 0 : (double)probes / keys;
+    }
+
+    /**
+     * Print the histograms and summary numbers
+     * @param out stream to print to
+     */
+    public synchronized void printReport(PrintStream out) {
+        out.printf("Sampled corners: %d (every %d)%n", sampledCorners, sampleEvery);
+        if (sampledCorners == 0) {
+            return;
+        }
+        out.printf("Mean distinct directions per corner: %.1f (%.1f%% of other points)%n",
+            (double)totalDirections / sampledCorners,
+            100.0 * totalDirections / Math.max(1, totalPoints - sampledCorners));
+        out.printf("Directions with a perpendicular partner: %.1f%%%n", 100 * partnerFraction());
+        out.printf("Mean probe length: %.3f%n", meanProbeLength());
+
+        out.println("Distinct directions per corner:");
+        for (int k = 0; k < SIZE_BUCKETS; k++) {
+            if (distinctHistogram[k] > 0) {
+                out.printf("  %10d - %-10d %d%n", 1L << k, (2L << k) - 1, distinctHistogram[k]);
+            }
+        }
+
+        out.println("Probe length:");
+        for (int k = 0; k < PROBE_BUCKETS; k++) {
+            if (probeHistogram[k] > 0) {
+                out.printf("  %2d%s %d%n", k + 1, k == PROBE_BUCKETS - 1 ? "+" : " ", probeHistogram[k]);
+            }
+        }
+    }
+}
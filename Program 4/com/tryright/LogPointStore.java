@@ -0,0 +1,392 @@
+package com.tryright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * LogPointStore - a growing PointStore backed by an append-only log of segment files
+ *
+ * The log is a directory of fixed-size segments (points-000000.seg, ...), each a
+ * 64-byte little-endian header followed by room for 2^20 points as little-endian
+ * x, y pairs. A new segment is created when the last one fills up:
+ *
+ *   offset  size  field
+ *        0     4  magic "TRPL"
+ *        4     4  version (1)
+ *        8     4  segment number
+ *       12     4  points per segment
+ *       16     8  committed points in this segment
+ *       24    40  reserved (0)
+ *
+ * Segments are mapped read-write; appends go straight into the mapping and then
+ * publish the new count, so readers on other threads always see a consistent prefix
+ * (and snapshot() pins one). sync() forces the records to disk before it updates the
+ * committed counts, so after a crash the log reopens with exactly the points of the
+ * last sync. A new segment file is forced together with its directory entry before any
+ * count that reaches into it is committed. Under SyncPolicy.EVERY_APPEND each append is synced before it is published.
+ *
+ * One process at a time may open a log. Appends are serialized; reads take no locks,
+ * only a ReaderGuard, which close() drains before it unmaps. A read racing close on
+ * another thread finishes or throws IllegalStateException.
+ */
+public class LogPointStore implements PointStore {
+
+    /**
+     * When appended points are made durable
+     */
+    public enum SyncPolicy {
+        /** Only on sync() and close(); a crash loses points appended since the last sync */
+        MANUAL,
+        /** Before every append returns; readers never see a point that is not on disk */
+        EVERY_APPEND
+    }
+
+    static final int MAGIC = 'T' | 'R' << 8 | 'P' << 16 | 'L' << 24; // "TRPL" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private static final int POINT_SIZE = 2 * Integer.BYTES;
+    private static final int COUNT_OFFSET = 16;
+
+    // 2^20 points: 8 MB segments
+    private static final int SEGMENT_SHIFT = 20;
+
+    // Points per bulk read in getPoints (64 KB of interleaved pairs)
+    private static final int BULK_POINTS = 1 << 13;
+
+    private final File directory;
+    private final SyncPolicy policy;
+    private final int segmentShift;
+    private final int segmentPoints;
+    private final MappedArena arena = new MappedArena();
+    private final ReaderGuard guard = new ReaderGuard();
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    // Published by the appender after the records are written; read first by readers
+    private volatile MappedByteBuffer[] segments;
+    private volatile int numPoints;
+
+    private int syncedPoints; // points whose segment headers say they are committed
+
+    /**
+     * Constructor - opens a log, creating the directory if needed
+     * @param directory directory holding the segment files
+     * @param policy when appended points are made durable
+     */
+    public LogPointStore(String directory, SyncPolicy policy) throws IOException {
+        this(directory, policy, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Constructor - with 2^segmentShift points per segment (package-private so tests can use tiny segments)
+     * @param directory directory holding the segment files
+     * @param policy when appended points are made durable
+     * @param segmentShift log2 of the points per segment, at most 27
+     */
+    LogPointStore(String directory, SyncPolicy policy, int segmentShift) throws IOException {
+        this.directory = new File(directory);
+        this.policy = policy;
+        this.segmentShift = segmentShift;
+        this.segmentPoints = 1 << segmentShift;
+
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        lockFile = new RandomAccessFile(new File(this.directory, "lock"), "rw");
+        try {
+            lock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            lockFile.close();
+            throw new IOException("Point log is already open: " + directory);
+        }
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException("Point log is in use by another process: " + directory);
+        }
+
+        try {
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Map the existing segments and count the committed points; anything after the first
+    // segment that is not full was never committed and is dropped
+    private void recover() throws IOException {
+        MappedByteBuffer[] found = new MappedByteBuffer[0];
+        long count = 0;
+        for (int k = 0; ; k++) {
+            File file = segmentFile(k);
+            if (!file.exists()) {
+                break;
+            }
+            if (file.length() == 0) {
+                dropSegments(k); // A crash between creating the file and sizing it
+                break;
+            }
+            MappedByteBuffer segment = mapSegment(file, false);
+            if (segment.getInt(0) == 0) {
+                // Created but never initialized (a crash in newSegment): it holds no points
+                dropSegments(k);
+                break;
+            }
+            if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION || segment.getInt(8) != k
+                || segment.getInt(12) != segmentPoints) {
+                throw new IOException("Invalid point log segment: " + file.getName());
+            }
+            long committed = segment.getLong(COUNT_OFFSET);
+            if (committed < 0 || committed > segmentPoints || count + committed > Integer.MAX_VALUE) {
+                throw new IOException("Invalid point log segment: " + file.getName());
+            }
+            found = Arrays.copyOf(found, k + 1);
+            found[k] = segment;
+            count += committed;
+            if (committed < segmentPoints) {
+                dropSegments(k + 1);
+                break;
+            }
+        }
+        segments = found;
+        syncedPoints = (int)count;
+        numPoints = (int)count;
+    }
+
+    // Delete segment k and every one after it
+    private void dropSegments(int k) throws IOException {
+        for (; segmentFile(k).exists(); k++) {
+            if (!segmentFile(k).delete()) {
+                throw new IOException("Cannot delete uncommitted segment " + segmentFile(k).getName());
+            }
+        }
+    }
+
+    private File segmentFile(int k) {
+        return new File(directory, String.format("points-%06d.seg", k));
+    }
+
+    // Map a whole segment file read-write, creating and initializing it if asked
+    private MappedByteBuffer mapSegment(File file, boolean create) throws IOException {
+        long size = HEADER_SIZE + (long)segmentPoints * POINT_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (!create && raf.length() != size) {
+                throw new IOException("Invalid point log segment: " + file.getName());
+            }
+            raf.setLength(size);
+            // The mapping stays valid after the file is closed
+            return arena.map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, 0, size, ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Append points to the end of the log
+     * @param xs X values
+     * @param ys Y values
+     * @param offset index in xs and ys of the first point to append
+     * @param count number of points to append
+     * @throws IOException if a segment cannot be created or synced
+     */
+    public synchronized void append(int[] xs, int[] ys, int offset, int count) throws IOException {
+        checkOpen();
+        if (offset < 0 || count < 0 || offset > xs.length - count || offset > ys.length - count) {
+            throw new IndexOutOfBoundsException("Range " + offset + ".." + ((long)offset + count)
+                + " out of bounds for " + Math.min(xs.length, ys.length) + " values");
+        }
+        if ((long)numPoints + count > Integer.MAX_VALUE) {
+            throw new IOException("Point log cannot hold more than " + Integer.MAX_VALUE + " points");
+        }
+
+        int end = numPoints;
+        MappedByteBuffer[] current = segments;
+        for (int k = offset; k < offset + count; k++, end++) {
+            int segment = end >>> segmentShift;
+            if (segment == current.length) {
+                current = Arrays.copyOf(current, segment + 1);
+                current[segment] = newSegment(segment);
+                segments = current; // Published before any count that reaches into it
+            }
+            int position = HEADER_SIZE + (end & (segmentPoints - 1)) * POINT_SIZE;
+            current[segment].putInt(position, xs[k]);
+            current[segment].putInt(position + Integer.BYTES, ys[k]);
+        }
+
+        if (policy == SyncPolicy.EVERY_APPEND) {
+            syncTo(end);
+        }
+        numPoints = end; // Volatile write: the records above are visible to any reader that sees it
+    }
+
+    /**
+     * Append one point to the end of the log
+     * @param x X value
+     * @param y Y value
+     * @throws IOException if a segment cannot be created or synced
+     */
+    public void append(int x, int y) throws IOException {
+        append(new int[] {x}, new int[] {y}, 0, 1);
+    }
+
+    private MappedByteBuffer newSegment(int k) throws IOException {
+        MappedByteBuffer segment = mapSegment(segmentFile(k), true);
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, VERSION);
+        segment.putInt(8, k);
+        segment.putInt(12, segmentPoints);
+        segment.putLong(COUNT_OFFSET, 0);
+        segment.force();
+        forceDirectory();
+        return segment;
+    }
+
+    // Make a new segment's directory entry durable too, or a power loss could drop the whole
+    // file while the full segment before it still reads as committed (POSIX; needs a readable directory)
+    private void forceDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    /**
+     * Make every appended point durable
+     * @throws IOException if forcing the segments to disk fails
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        syncTo(numPoints);
+    }
+
+    // Force the records of points [syncedPoints, end), then commit them in the segment headers
+    private void syncTo(int end) throws IOException {
+        if (end == syncedPoints) {
+            return;
+        }
+        MappedByteBuffer[] current = segments;
+        int first = syncedPoints >>> segmentShift;
+        int last = (end - 1) >>> segmentShift;
+        for (int k = first; k <= last; k++) {
+            current[k].force();
+        }
+        for (int k = first; k <= last; k++) {
+            long committed = Math.min(segmentPoints, end - ((long)k << segmentShift));
+            current[k].putLong(COUNT_OFFSET, committed);
+            current[k].force(0, HEADER_SIZE);
+        }
+        syncedPoints = end;
+    }
+
+    /**
+     * Get a view of the points appended so far; later appends do not change it
+     * @return consistent prefix of the log, valid while the log is open
+     */
+    public PointStore snapshot() {
+        return slice(0, numPoints);
+    }
+
+    private void checkOpen() {
+        if (guard.isClosed()) {
+            throw new IllegalStateException("PointStore is closed");
+        }
+    }
+
+    @Override
+    public int getX(int idx) {
+        guard.enter();
+        try {
+            int count = numPoints;
+            if (idx < 0 || idx >= count) {
+                throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " points");
+            }
+            return segments[idx >>> segmentShift].getInt(HEADER_SIZE + (idx & (segmentPoints - 1)) * POINT_SIZE);
+        } finally {
+            guard.exit();
+        }
+    }
+
+    @Override
+    public int getY(int idx) {
+        guard.enter();
+        try {
+            int count = numPoints;
+            if (idx < 0 || idx >= count) {
+                throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " points");
+            }
+            return segments[idx >>> segmentShift].getInt(HEADER_SIZE + (idx & (segmentPoints - 1)) * POINT_SIZE
+                + Integer.BYTES);
+        } finally {
+            guard.exit();
+        }
+    }
+
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        guard.enter();
+        try {
+            PointStore.checkRange(startIdx, count, numPoints, xs, ys, offset);
+            MappedByteBuffer[] current = segments;
+
+            // Bulk-copy interleaved pairs through an int view a chunk at a time, then split them
+            int[] pairs = new int[2 * Math.min(count, BULK_POINTS)];
+            int done = 0;
+            while (done < count) {
+                int idx = startIdx + done;
+                int inSegment = idx & (segmentPoints - 1);
+                int length = Math.min(Math.min(count - done, BULK_POINTS), segmentPoints - inSegment);
+                ByteBuffer bytes = current[idx >>> segmentShift].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                bytes.position(HEADER_SIZE + inSegment * POINT_SIZE);
+                bytes.asIntBuffer().get(pairs, 0, 2 * length);
+                for (int k = 0, at = offset + done; k < length; k++, at++) {
+                    xs[at] = pairs[2 * k];
+                    ys[at] = pairs[2 * k + 1];
+                }
+                done += length;
+            }
+        } finally {
+            guard.exit();
+        }
+    }
+
+    @Override
+    public int numPoints() {
+        return numPoints;
+    }
+
+    /**
+     * Sync, unmap the segments and release the log
+     */
+    @Override
+    public synchronized void close() {
+        if (guard.isClosed()) {
+            return;
+        }
+        try {
+            if (segments != null) {
+                syncTo(numPoints);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Error syncing point log: " + e.getMessage());
+        }
+        // Waits for reads in flight, so none of them sees the unmapped segments
+        guard.close();
+        numPoints = 0;
+        arena.close();
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            lockFile.close();
+        } catch (IOException e) {
+            System.err.println("Warning: Error closing file: " + e.getMessage());
+        }
+    }
+}
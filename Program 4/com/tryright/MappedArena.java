@@ -0,0 +1,99 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MappedArena - owns file mappings and unmaps them all at once on close
+ *
+ * A MappedByteBuffer normally stays mapped until the garbage collector finds it, so
+ * a run that opens thousands of files holds their address space (and the files)
+ * long after closing them. close() unmaps right away through the JDK's buffer cleaner.
+ * Any buffer or view of a mapping must not be touched after that: the owner has to
+ * stop access first, and must not close while another thread is still reading.
+ *
+ * If the cleaner is not available, close() leaves the mappings to the garbage collector.
+ */
+class MappedArena implements AutoCloseable {
+
+    // sun.misc.Unsafe.invokeCleaner(ByteBuffer), looked up reflectively so the build needs no internal API
+    private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+
+    private static MethodHandle findCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether close() really unmaps
+     * @return true if the cleaner was found
+     */
+    static boolean canUnmap() {
+        return INVOKE_CLEANER != null;
+    }
+
+    /**
+     * Map part of a file read-only
+     * @param channel open file
+     * @param position file offset of the first byte
+     * @param size bytes to map (at most Integer.MAX_VALUE)
+     * @param order byte order of the returned buffer
+     * @return mapping owned by this arena
+     */
+    MappedByteBuffer map(FileChannel channel, long position, long size, ByteOrder order) throws IOException {
+        return map(channel, FileChannel.MapMode.READ_ONLY, position, size, order);
+    }
+
+    /**
+     * Map part of a file
+     * @param channel open file (opened for writing if mode is READ_WRITE)
+     * @param mode READ_ONLY, or READ_WRITE to write through the mapping
+     * @param position file offset of the first byte
+     * @param size bytes to map (at most Integer.MAX_VALUE)
+     * @param order byte order of the returned buffer
+     * @return mapping owned by this arena
+     */
+    MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size, ByteOrder order)
+            throws IOException {
+        MappedByteBuffer mapped = channel.map(mode, position, size);
+        mapped.order(order);
+        mappings.add(mapped);
+        return mapped;
+    }
+
+    /**
+     * Unmap every mapping; later calls do nothing
+     */
+    @Override
+    public void close() {
+        if (INVOKE_CLEANER != null) {
+            for (MappedByteBuffer mapped : mappings) {
+                try {
+                    INVOKE_CLEANER.invokeExact((ByteBuffer)mapped);
+                } catch (Throwable e) {
+                    break; // Leave the rest to the garbage collector
+                }
+            }
+        }
+        mappings.clear();
+    }
+}
@@ -0,0 +1,246 @@
+package com.tryright;
+
+/**
+ * MemoryGovernor - checks a counting job against a heap budget before it starts
+ *
+ * Estimates the shared footprint (coordinate arrays) and the per-worker footprint
+ * (direction tables) from n and the kernel. If the job does not fit, it caps the
+ * number of workers. A dictionary that does not fit is swapped for the hash kernel,
+ * whose tables grow with n instead of n^2. The dictionary is planned for a group per
+ * pair of points, or per direction that fits in the coordinate span when that is
+ * smaller, so grids and small coordinate ranges keep it. If even one hash worker does not fit, small
+ * inputs switch to the brute-force kernel, which needs no per-worker memory, and
+ * larger ones are refused rather than left to an O(n^3) run. The decision is made and
+ * reported up front instead of running out of memory part way through.
+ */
+public class MemoryGovernor {
+
+    // Bytes per point in the coordinate arrays: the store's copy plus the shared copy
+    static final long SHARED_BYTES_PER_POINT = 2L * 2 * Integer.BYTES;
+
+    // HashMap kernel: Node (32) + Direction (32) + table slot (8), Integer counts are mostly cached.
+    // ForkJoinTriangles' DirectionTable takes up to 4 slots of 20 bytes plus 4 bytes per point, so 84.
+    static final long HASH_BYTES_PER_ENTRY = 84;
+
+    // Dictionary kernel: 64K-entry local cache (long + int) per worker
+    static final long DICTIONARY_CACHE_BYTES = (1 << 16) * (Long.BYTES + Integer.BYTES);
+
+    // Dictionary kernel: a touched-list slot per point
+    static final long DICTIONARY_BYTES_PER_POINT = Integer.BYTES;
+
+    // Dictionary kernel: each worker's counts array has four slots for every group in the dictionary
+    static final long DICTIONARY_WORKER_BYTES_PER_GROUP = 4L * Integer.BYTES;
+
+    // Dictionary kernel, shared: ConcurrentHashMap node (32) + Long key (16) + Integer group (16)
+    static final long DICTIONARY_BYTES_PER_GROUP = 64;
+
+    // Largest input the brute-force kernel is used for when no table fits; beyond this
+    // the O(n^3) run would take hours, so the job is refused instead
+    static final int BRUTE_FORCE_FALLBACK_MAX_POINTS = 5_000;
+
+    /**
+     * Outcome of a budget check
+     */
+    public static class Plan {
+        public final int threads;
+        public final Kernel kernel;
+        public final long estimatedBytes;
+        public final String message;
+
+        Plan(int threads, Kernel kernel, long estimatedBytes, String message) {
+            this.threads = threads;
+            this.kernel = kernel;
+            this.estimatedBytes = estimatedBytes;
+            this.message = message;
+        }
+
+        /**
+         * Check if the requested job had to be changed to fit
+         * @return true if threads or kernel were changed
+         */
+        public boolean isChanged() {
+            return message != null;
+        }
+    }
+
+    /**
+     * Estimate the heap one worker needs on top of the shared coordinates
+     * @param n number of points
+     * @param kernel counting kernel
+     * @return estimated bytes per worker
+     */
+    public static long perWorkerBytes(int n, Kernel kernel) {
+        return perWorkerBytes(n, kernel, null);
+    }
+
+    /**
+     * Estimate the heap one worker needs on top of the shared coordinates
+     * @param n number of points
+     * @param kernel counting kernel
+     * @param bounds verified bounds of the points, or null if unknown
+     * @return estimated bytes per worker
+     */
+    public static long perWorkerBytes(int n, Kernel kernel, PointStats bounds) {
+        switch (resolve(n, kernel)) {
+            case BRUTE_FORCE:
+                return 0;
+            case DICTIONARY:
+                return DICTIONARY_CACHE_BYTES + DICTIONARY_BYTES_PER_POINT * n
+                    + DICTIONARY_WORKER_BYTES_PER_GROUP * dictionaryGroups(n, bounds);
+            default:
+                // One direction table of up to n - 1 entries is live at a time
+                return HASH_BYTES_PER_ENTRY * n;
+        }
+    }
+
+    /**
+     * Estimate the heap shared by all workers
+     * @param n number of points
+     * @param kernel counting kernel
+     * @return estimated shared bytes
+     */
+    public static long sharedBytes(int n, Kernel kernel) {
+        return sharedBytes(n, kernel, null);
+    }
+
+    /**
+     * Estimate the heap shared by all workers
+     * @param n number of points
+     * @param kernel counting kernel
+     * @param bounds verified bounds of the points, or null if unknown
+     * @return estimated shared bytes
+     */
+    public static long sharedBytes(int n, Kernel kernel, PointStats bounds) {
+        long bytes = SHARED_BYTES_PER_POINT * n;
+        if (kernel == Kernel.DICTIONARY) {
+            bytes += DICTIONARY_BYTES_PER_GROUP * dictionaryGroups(n, bounds);
+        }
+        return bytes;
+    }
+
+    // A pair of points gives at most one new group (opposite directions share it), and no
+    // group is a reduced direction outside the (2*spanX+1) x (2*spanY+1) box of differences
+    static long dictionaryGroups(int n, PointStats bounds) {
+        long groups = (long)n * (n - 1) / 2;
+        if (bounds != null && n > 0) {
+            long width = 2 * ((long)bounds.maxX - bounds.minX) + 1;
+            long height = 2 * ((long)bounds.maxY - bounds.minY) + 1;
+            if (width <= groups / height) {
+                groups = Math.min(groups, width * height);
+            }
+        }
+        return groups;
+    }
+
+    // AUTO is brute force below the crossover, HASH above it
+    private static Kernel resolve(int n, Kernel kernel) {
+        if (kernel == Kernel.AUTO) {
+            return n < TrianglesUtils.BRUTE_FORCE_CROSSOVER ? Kernel.BRUTE_FORCE : Kernel.HASH;
+        }
+        return kernel;
+    }
+
+    /**
+     * Fit a counting job into a heap budget
+     * @param n number of points
+     * @param threads requested number of workers
+     * @param kernel requested kernel
+     * @param budgetBytes heap budget in bytes
+     * @param exactDotProduct whether the brute-force kernel is exact for these points
+     * @return plan to run with; message is null when the request fits as is
+     * @throws IllegalStateException if the job cannot fit in the budget at all
+     */
+    public static Plan plan(int n, int threads, Kernel kernel, long budgetBytes, boolean exactDotProduct) {
+        return plan(n, threads, kernel, budgetBytes, exactDotProduct, null);
+    }
+
+    /**
+     * Fit a counting job into a heap budget
+     * @param n number of points
+     * @param threads requested number of workers
+     * @param kernel requested kernel
+     * @param budgetBytes heap budget in bytes
+     * @param exactDotProduct whether the brute-force kernel is exact for these points
+     * @param bounds verified bounds of the points, used to size the dictionary; null if unknown
+     * @return plan to run with; message is null when the request fits as is
+     * @throws IllegalStateException if the job cannot fit in the budget at all
+     */
+    public static Plan plan(int n, int threads, Kernel kernel, long budgetBytes, boolean exactDotProduct,
+                            PointStats bounds) {
+        long shared = sharedBytes(n, kernel, bounds);
+        long perWorker = perWorkerBytes(n, kernel, bounds);
+        long estimate = shared + perWorker * threads;
+
+        if (estimate <= budgetBytes) {
+            return new Plan(threads, kernel, estimate, null);
+        }
+
+        // The dictionary grows with the number of directions; the hash kernel gives the same count
+        if (kernel == Kernel.DICTIONARY) {
+            Plan hash = plan(n, threads, Kernel.HASH, budgetBytes, exactDotProduct, bounds);
+            return new Plan(hash.threads, hash.kernel, hash.estimatedBytes,
+                "Memory: about " + formatBytes(estimate) + " needed for the dictionary kernel, budget is "
+                + formatBytes(budgetBytes) + "; using " + hash.kernel.name().toLowerCase().replace('_', '-')
+                + " kernel with " + hash.threads + " threads");
+        }
+
+        if (shared > budgetBytes) {
+            throw new IllegalStateException("Memory budget of " + formatBytes(budgetBytes)
+                + " is too small for " + n + " points (need about " + formatBytes(shared) + ")");
+        }
+
+        // Cap concurrency to what fits
+        int fittingThreads = (int)Math.min(threads, (budgetBytes - shared) / perWorker);
+        if (fittingThreads >= 1) {
+            long capped = shared + perWorker * fittingThreads;
+            return new Plan(fittingThreads, kernel, capped,
+                "Memory: about " + formatBytes(estimate) + " needed for " + threads + " threads, budget is "
+                + formatBytes(budgetBytes) + "; using " + fittingThreads + " threads");
+        }
+
+        // Not even one direction table fits, use the kernel without one while it finishes in reasonable time
+        if (!exactDotProduct || n > BRUTE_FORCE_FALLBACK_MAX_POINTS) {
+            throw new IllegalStateException("Memory budget of " + formatBytes(budgetBytes)
+                + " is too small for one worker (need about " + formatBytes(shared + perWorker) + ")");
+        }
+        return new Plan(threads, Kernel.BRUTE_FORCE, sharedBytes(n, Kernel.BRUTE_FORCE),
+            "Memory: one " + resolve(n, kernel).name().toLowerCase() + " worker needs about "
+            + formatBytes(shared + perWorker) + ", budget is " + formatBytes(budgetBytes)
+            + "; switching to brute-force kernel");
+    }
+
+    /**
+     * Parse a budget such as "512m", "2g" or a plain byte count
+     * @param text budget from the command line
+     * @return budget in bytes
+     * @throws NumberFormatException if the text is not a positive size
+     */
+    public static long parseBudget(String text) {
+        String value = text.trim().toLowerCase();
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        long bytes = Long.parseLong(value) * unit;
+        if (bytes <= 0) {
+            throw new NumberFormatException("Budget must be positive");
+        }
+        return bytes;
+    }
+
+    // Round up to KB or MB so small budgets still read sensibly
+    private static String formatBytes(long bytes) {
+        if (bytes < (10L << 20)) {
+            return ((bytes + 1023) >> 10) + " KB";
+        }
+        return ((bytes + (1L << 20) - 1) >> 20) + " MB";
+    }
+}
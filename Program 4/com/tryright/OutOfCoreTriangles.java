@@ -0,0 +1,275 @@
+package com.tryright;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OutOfCoreTriangles - counts right triangles in binary files larger than memory
+ *
+ * Usage: java com.tryright.OutOfCoreTriangles <input_file.dat> [memory_budget]
+ *
+ * Only one block of corner points and their direction tables are resident at a time.
+ * For each block, the whole file is streamed past it in large sequential reads, and
+ * every streamed point is added to each resident corner's table. The block size is
+ * the number of direction tables that fit in memory_budget (default: half the max heap).
+ *
+ * When not even one table of every direction fits, directions are split into partitions
+ * that keep each direction together with its perpendiculars, and the file is streamed
+ * once per partition, counting only that partition's directions. The per-corner counts
+ * of the partitions add up to the full count, so memory no longer grows with the file.
+ */
+public class OutOfCoreTriangles {
+
+    // Points per sequential read (8 bytes each, so 8 MB)
+    static final int STREAM_POINTS = 1 << 20;
+
+    private static final int POINT_SIZE = 2 * Integer.BYTES;
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java com.tryright.OutOfCoreTriangles <input_file.dat> [memory_budget]");
+            System.exit(1);
+        }
+
+        String filename = args[0];
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+        if (args.length == 2) {
+            try {
+                memoryBudget = MemoryGovernor.parseBudget(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid memory budget: " + args[1]);
+                System.exit(1);
+            }
+        }
+
+        File inputFile = new File(filename);
+        if (!inputFile.exists()) {
+            System.err.println("Error: No such file or directory");
+            System.exit(2);
+        }
+
+        if (!inputFile.canRead()) {
+            System.err.println("Error: Permission denied");
+            System.exit(2);
+        }
+
+        try {
+            String format = PointStoreRegistry.detect(filename);
+            if (!format.equals("v2") && !format.equals("raw")) {
+                System.err.println("Error: Out-of-core counting needs a binary point file, not " + format);
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = file.getChannel();
+            PointFileHeader header = PointFileHeader.read(channel);
+            if (header.columnar) {
+                throw new IOException("Out-of-core counting needs an interleaved file, not a columnar one");
+            }
+            long numPoints = header.numPoints;
+
+            int partitions = partitions(numPoints, memoryBudget);
+            int blockPoints = blockSize(numPoints, partitions, memoryBudget);
+            System.err.println("Out-of-core: " + numPoints + " points, " + blockPoints + " corners per block, "
+                + partitions + " direction partitions, "
+                + ((numPoints + blockPoints - 1) / blockPoints * partitions) + " passes");
+
+            System.out.println(countRightTriangles(channel, header.dataOffset, header.order, numPoints, blockPoints,
+                partitions));
+
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Pick how many direction partitions are needed for one corner's table to fit in the budget
+     * @param numPoints points in the file
+     * @param memoryBudget heap budget in bytes
+     * @return number of partitions (1 if a table of every direction fits)
+     * @throws IllegalStateException if the budget leaves no room for a table at all
+     */
+    static int partitions(long numPoints, long memoryBudget) {
+        long available = available(memoryBudget) - POINT_SIZE;
+        if (available >= tableBytes(numPoints, 1)) {
+            return 1;
+        }
+        if (available < tableBytes(numPoints, (int)Math.min(numPoints, Integer.MAX_VALUE))) {
+            throw new IllegalStateException("Memory budget is too small for one direction table");
+        }
+        // Smallest partition count whose tables fit, found by halving the gap
+        long low = 1, high = Math.min(numPoints, Integer.MAX_VALUE);
+        while (high - low > 1) {
+            long mid = (low + high) >>> 1;
+            if (available >= tableBytes(numPoints, (int)mid)) {
+                high = mid;
+            } else {
+                low = mid;
+            }
+        }
+        return (int)high;
+    }
+
+    /**
+     * Pick how many corners to keep resident so their tables fit in the budget
+     * @param numPoints points in the file
+     * @param partitions direction partitions per block, from partitions()
+     * @param memoryBudget heap budget in bytes
+     * @return corners per block (at least 1)
+     * @throws IllegalStateException if not even one corner's table fits
+     */
+    static int blockSize(long numPoints, int partitions, long memoryBudget) {
+        long available = available(memoryBudget);
+        long perCorner = POINT_SIZE + tableBytes(numPoints, partitions);
+        if (available < perCorner) {
+            throw new IllegalStateException("Memory budget is too small for one direction table of "
+                + numPoints + " points in " + partitions + " partitions");
+        }
+        // The block itself is read into one ByteBuffer
+        long maxBlock = Math.min(numPoints, Integer.MAX_VALUE / POINT_SIZE);
+        return (int)Math.max(1, Math.min(available / perCorner, maxBlock));
+    }
+
+    // Budget left after the stream buffer and its decoded arrays
+    private static long available(long memoryBudget) {
+        return memoryBudget - 2L * STREAM_POINTS * POINT_SIZE;
+    }
+
+    // One corner's table: up to numPoints directions, split over the partitions with room for uneven ones
+    private static long tableBytes(long numPoints, int partitions) {
+        long entries = partitions == 1 ? numPoints : 2 * ((numPoints + partitions - 1) / partitions);
+        return MemoryGovernor.HASH_BYTES_PER_ENTRY * entries;
+    }
+
+    /**
+     * Partition of a reduced direction; a direction and its rotations by 90° share one
+     * @param dir reduced direction
+     * @param partitions number of partitions
+     * @return partition in [0, partitions)
+     */
+    static int partition(TrianglesUtils.Direction dir, int partitions) {
+        long dx = dir.dx, dy = dir.dy;
+        if (partitions == 1 || (dx == 0 && dy == 0)) {
+            return 0;
+        }
+        // Rotate clockwise into the quadrant dx > 0, dy >= 0, as DirectionDictionary does
+        while (!(dx > 0 && dy >= 0)) {
+            long temp = dx;
+            dx = dy;
+            dy = -temp;
+        }
+        long h = (dx * 0x9E3779B97F4A7C15L + dy) * 0x9E3779B97F4A7C15L;
+        return (int)((h >>> 1) % partitions);
+    }
+
+    /**
+     * Count right triangles in a raw (version 1) file, keeping blockPoints corners resident per pass
+     * @param channel open channel on a binary point file
+     * @param numPoints points in the file
+     * @param blockPoints corners per block
+     * @return count of right triangles
+     */
+    static long countRightTriangles(FileChannel channel, long numPoints, int blockPoints) throws IOException {
+        return countRightTriangles(channel, 0, ByteOrder.BIG_ENDIAN, numPoints, blockPoints, 1);
+    }
+
+    /**
+     * Count right triangles, keeping blockPoints corners resident per pass over the file
+     * @param channel open channel on a binary point file
+     * @param dataOffset file offset of the first point
+     * @param order byte order of the points
+     * @param numPoints points in the file
+     * @param blockPoints corners per block
+     * @param partitions direction partitions, each streamed in its own pass per block
+     * @return count of right triangles
+     */
+    static long countRightTriangles(FileChannel channel, long dataOffset, ByteOrder order, long numPoints,
+                                    int blockPoints, int partitions) throws IOException {
+        if (numPoints < 3) {
+            return 0;
+        }
+
+        ByteBuffer stream = ByteBuffer.allocateDirect(STREAM_POINTS * POINT_SIZE).order(order);
+        int[] otherX = new int[STREAM_POINTS];
+        int[] otherY = new int[STREAM_POINTS];
+        long totalCount = 0;
+
+        for (long blockStart = 0; blockStart < numPoints; blockStart += blockPoints) {
+            int blockLength = (int)Math.min(blockPoints, numPoints - blockStart);
+
+            // Load the resident corners
+            int[] cornerX = new int[blockLength];
+            int[] cornerY = new int[blockLength];
+            ByteBuffer block = ByteBuffer.allocate(blockLength * POINT_SIZE).order(order);
+            readFully(channel, block, dataOffset + blockStart * POINT_SIZE);
+            for (int i = 0; i < blockLength; i++) {
+                cornerX[i] = block.getInt(i * POINT_SIZE);
+                cornerY[i] = block.getInt(i * POINT_SIZE + Integer.BYTES);
+            }
+
+            for (int part = 0; part < partitions; part++) {
+                List<Map<TrianglesUtils.Direction, Integer>> tables = new ArrayList<>(blockLength);
+                for (int i = 0; i < blockLength; i++) {
+                    tables.add(new HashMap<>());
+                }
+
+                // Stream every point in the file past the block, one large read at a time
+                for (long streamStart = 0; streamStart < numPoints; streamStart += STREAM_POINTS) {
+                    int streamLength = (int)Math.min(STREAM_POINTS, numPoints - streamStart);
+                    stream.clear().limit(streamLength * POINT_SIZE);
+                    readFully(channel, stream, dataOffset + streamStart * POINT_SIZE);
+                    for (int j = 0; j < streamLength; j++) {
+                        otherX[j] = stream.getInt(j * POINT_SIZE);
+                        otherY[j] = stream.getInt(j * POINT_SIZE + Integer.BYTES);
+                    }
+
+                    // One corner at a time so its table stays hot while it sees the whole read
+                    for (int i = 0; i < blockLength; i++) {
+                        long self = blockStart + i - streamStart; // corner's own index in this read, if any
+                        Map<TrianglesUtils.Direction, Integer> directionCounts = tables.get(i);
+                        for (int j = 0; j < streamLength; j++) {
+                            if (j == self) continue; // Skip itself
+
+                            TrianglesUtils.Direction dir = new TrianglesUtils.Direction(
+                                (long)otherX[j] - cornerX[i], (long)otherY[j] - cornerY[i]);
+                            if (partition(dir, partitions) != part) continue; // Counted in another pass
+                            directionCounts.put(dir, directionCounts.getOrDefault(dir, 0) + 1);
+                        }
+                    }
+                }
+
+                // Perpendiculars share a partition, so the partitions' pair counts add up
+                for (int i = 0; i < blockLength; i++) {
+                    totalCount += TrianglesUtils.countPerpendicularPairs(tables.get(i));
+                    tables.set(i, null);
+                }
+            }
+        }
+
+        return totalCount;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
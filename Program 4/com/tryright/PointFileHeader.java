@@ -0,0 +1,249 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * PointFileHeader - layout of a binary point file, raw (version 1) or with a header (version 2)
+ *
+ * Version 1 is the original format: pairs of 4-byte big-endian integers (x, y), no header.
+ * Version 2 starts with a 64-byte little-endian header, followed by a little-endian payload:
+ *
+ *   offset  size  field
+ *        0     4  magic "TRPT"
+ *        4     4  version (2)
+ *        8     4  flags (bit 0: points may repeat, bit 1: checksum present, bit 2: columnar)
+ *       12     4  reserved (0)
+ *       16     8  point count
+ *       24    16  min x, max x, min y, max y
+ *       40     8  CRC32C of the payload, or 0
+ *       48    16  reserved (0)
+ *
+ * The payload is in x86's native order and starts 64-byte aligned, so it maps with no
+ * conversion. It is either interleaved (x, y) pairs, or columnar: all x values, zero
+ * padding to the next 64-byte boundary, then all y values.
+ *
+ * A raw file is only taken for version 2 if it starts with the magic and version.
+ * A raw file whose first point is (1414680660, 33554432) does, so read() refuses it
+ * unless its header happens to hold up; PointStoreRegistry then opens it with readRaw.
+ */
+public class PointFileHeader {
+
+    static final int MAGIC = 'T' | 'R' << 8 | 'P' << 16 | 'T' << 24; // "TRPT" read little-endian
+    static final int VERSION_RAW = 1;
+    static final int VERSION_2 = 2;
+    static final int HEADER_SIZE = 64;
+
+    static final int FLAG_DUPLICATES = 1;
+    static final int FLAG_CHECKSUM = 2;
+    static final int FLAG_COLUMNAR = 4;
+    static final int COLUMN_ALIGNMENT = 64;
+
+    private static final int POINT_SIZE = 2 * Integer.BYTES;
+
+    // Points per read when verifying a checksum (8 MB)
+    private static final int READ_POINTS = 1 << 20;
+
+    public final int version;
+    public final long dataOffset;
+    public final long numPoints;
+    public final ByteOrder order;
+    public final PointStats stats; // null for raw files
+    public final boolean hasChecksum;
+    public final long checksum;
+    public final boolean columnar;
+
+    private PointFileHeader(int version, long dataOffset, long numPoints, ByteOrder order,
+                            PointStats stats, boolean hasChecksum, long checksum, boolean columnar) {
+        this.version = version;
+        this.dataOffset = dataOffset;
+        this.numPoints = numPoints;
+        this.order = order;
+        this.stats = stats;
+        this.hasChecksum = hasChecksum;
+        this.checksum = checksum;
+        this.columnar = columnar;
+    }
+
+    /**
+     * Read and validate the layout of a binary point file
+     * @param channel open channel on the file
+     * @return layout of the file
+     * @throws IOException if the file is not a valid point file
+     */
+    public static PointFileHeader read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        if (fileSize >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION_2) {
+                return readVersion2(header, fileSize);
+            }
+        }
+
+        return readRaw(channel);
+    }
+
+    /**
+     * Read the layout of a file as raw big-endian pairs, whatever its first bytes are
+     * @param channel open channel on the file
+     * @return layout of the file
+     * @throws IOException if the file is not a whole number of points
+     */
+    static PointFileHeader readRaw(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize % POINT_SIZE != 0) {
+            throw new IOException("Invalid binary file format: file size (" + fileSize +
+                                " bytes) is not a multiple of " + POINT_SIZE + " bytes");
+        }
+        return new PointFileHeader(VERSION_RAW, 0, fileSize / POINT_SIZE, ByteOrder.BIG_ENDIAN, null, false, 0, false);
+    }
+
+    private static PointFileHeader readVersion2(ByteBuffer header, long fileSize) throws IOException {
+        int flags = header.getInt(8);
+        long numPoints = header.getLong(16);
+        if (numPoints < 0 || numPoints > Integer.MAX_VALUE) {
+            throw new IOException("Invalid binary file format: bad point count " + numPoints);
+        }
+
+        boolean columnar = (flags & FLAG_COLUMNAR) != 0;
+        long payload = fileSize - HEADER_SIZE;
+        long expected = columnar ? columnGap(numPoints) + numPoints * Integer.BYTES : numPoints * POINT_SIZE;
+        if (payload != expected) {
+            throw new IOException("Invalid binary file format: header says " + numPoints
+                + " points but payload is " + payload + " bytes");
+        }
+
+        PointStats stats = PointStats.fromHeader((int)numPoints, header.getInt(24), header.getInt(28),
+            header.getInt(32), header.getInt(36), (flags & FLAG_DUPLICATES) != 0);
+        return new PointFileHeader(VERSION_2, HEADER_SIZE, numPoints, ByteOrder.LITTLE_ENDIAN, stats,
+            (flags & FLAG_CHECKSUM) != 0, header.getLong(40), columnar);
+    }
+
+    /**
+     * Read and validate the layout of a binary point file
+     * @param filename path to the file
+     * @return layout of the file
+     * @throws IOException if the file cannot be read or is not a valid point file
+     */
+    public static PointFileHeader read(String filename) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            return read(file.getChannel());
+        }
+    }
+
+    // Bytes from the start of the x column to the start of the y column
+    private static long columnGap(long numPoints) {
+        long xBytes = numPoints * Integer.BYTES;
+        return (xBytes + COLUMN_ALIGNMENT - 1) / COLUMN_ALIGNMENT * COLUMN_ALIGNMENT;
+    }
+
+    /**
+     * File offset of the y column of a columnar file
+     * @return offset of the first y value
+     */
+    public long yColumnOffset() {
+        return dataOffset + columnGap(numPoints);
+    }
+
+    /**
+     * Check the payload against the CRC32C in the header, reading it through the channel
+     * @param channel open channel on the file this header was read from
+     * @throws IOException if the header has a checksum and the payload does not match it
+     */
+    public void verifyChecksum(FileChannel channel) throws IOException {
+        if (!hasChecksum) {
+            return;
+        }
+        CRC32C crc = new CRC32C();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(READ_POINTS * POINT_SIZE);
+        long end = channel.size();
+        for (long position = dataOffset; position < end; position += chunk.limit()) {
+            chunk.clear().limit((int)Math.min(chunk.capacity(), end - position));
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, position + chunk.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            chunk.flip();
+            crc.update(chunk);
+        }
+        if (crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch: payload is corrupt");
+        }
+    }
+
+    /**
+     * Write points as a version 2 file
+     * @param filename path of the file to create or replace
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param withChecksum whether to store a CRC32C of the payload
+     */
+    public static void write(String filename, int[] xCoords, int[] yCoords, int n,
+                             boolean withChecksum) throws IOException {
+        write(filename, xCoords, yCoords, n, withChecksum, false);
+    }
+
+    /**
+     * Write points as a version 2 file, interleaved or columnar, with an exact duplicate flag
+     * @param filename path of the file to create or replace
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param withChecksum whether to store a CRC32C of the payload
+     * @param columnar whether to write all x values, then all y values
+     */
+    public static void write(String filename, int[] xCoords, int[] yCoords, int n,
+                             boolean withChecksum, boolean columnar) throws IOException {
+        try (PointStoreWriter writer = columnar ? new ColumnPointStore.Writer(filename, withChecksum)
+                                                : new BinPointStore.Writer(filename, true, withChecksum)) {
+            writer.setDistinct(!PointStats.compute(xCoords, yCoords, n).hasDuplicates);
+            writer.write(xCoords, yCoords, 0, n);
+        }
+    }
+
+    /**
+     * Write a version 2 header at the start of a file
+     * @param channel channel on the file
+     * @param stats count, bounds and duplicate flag of the points
+     * @param checksum CRC32C of the payload, or null for none
+     * @param columnar whether the payload is columnar
+     */
+    static void writeHeader(FileChannel channel, PointStats stats, Long checksum, boolean columnar) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION_2);
+        header.putInt(8, (stats.hasDuplicates ? FLAG_DUPLICATES : 0) | (checksum != null ? FLAG_CHECKSUM : 0)
+            | (columnar ? FLAG_COLUMNAR : 0));
+        header.putLong(16, stats.numPoints);
+        header.putInt(24, stats.minX);
+        header.putInt(28, stats.maxX);
+        header.putInt(32, stats.minY);
+        header.putInt(36, stats.maxY);
+        header.putLong(40, checksum != null ? checksum : 0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Bytes of zero padding after an x column of numPoints values
+     * @param numPoints number of points
+     * @return padding before the y column
+     */
+    static int columnPadding(long numPoints) {
+        return (int)(columnGap(numPoints) - numPoints * Integer.BYTES);
+    }
+}
+
@@ -0,0 +1,41 @@
+package com.tryright;
+
+/**
+ * PointFormat - file formats a PointStoreWriter can produce
+ */
+public enum PointFormat {
+    /** Count line, then one "x y" line per point (TextPointStore) */
+    TEXT,
+    /** Raw big-endian pairs with no header, the original .dat format (BinPointStore) */
+    RAW,
+    /** Version 2 header with little-endian pairs (BinPointStore) */
+    V2,
+    /** Version 2 header with an x column and a y column (ColumnPointStore) */
+    COLUMNAR,
+    /** Row-sorted varint blocks (CompressedPointStore) */
+    COMPRESSED;
+
+    /**
+     * Parse a format name from the command line (case-insensitive, '-' or '_')
+     * @param name format name, e.g. "text" or "columnar"
+     * @return matching format
+     * @throws IllegalArgumentException if no format has that name
+     */
+    public static PointFormat parse(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * Pick the default output format for a file name from its extension
+     * @param filename output path
+     * @return V2 for .dat, COMPRESSED for .tpz, TEXT otherwise
+     */
+    public static PointFormat forFilename(String filename) {
+        if (filename.endsWith(".dat")) {
+            return V2;
+        } else if (filename.endsWith(".tpz")) {
+            return COMPRESSED;
+        }
+        return TEXT;
+    }
+}
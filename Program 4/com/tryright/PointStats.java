@@ -0,0 +1,128 @@
+package com.tryright;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PointStats - point count, bounding box and duplicate flag of a point set
+ *
+ * Version 2 binary files store these in their header, so kernel selection can
+ * use them without scanning the points again. compute() derives them from
+ * coordinate arrays when writing such a file.
+ *
+ * Stats read back from a header are only what the writer claimed (the checksum covers
+ * the payload, not the header), so they are marked unverified and the kernels treat
+ * them as hints: anything a count's correctness depends on is checked on the points.
+ */
+public class PointStats {
+
+    public final int numPoints;
+    public final int minX, maxX, minY, maxY;
+    public final boolean hasDuplicates; // false only if the points are known to be distinct
+    public final boolean verified; // false if only claimed by a file header
+
+    /**
+     * Constructor
+     * @param numPoints number of points
+     * @param minX smallest X (Integer.MAX_VALUE when there are no points)
+     * @param maxX largest X (Integer.MIN_VALUE when there are no points)
+     * @param minY smallest Y (Integer.MAX_VALUE when there are no points)
+     * @param maxY largest Y (Integer.MIN_VALUE when there are no points)
+     * @param hasDuplicates whether any point may occur more than once (false only if known distinct)
+     */
+    public PointStats(int numPoints, int minX, int maxX, int minY, int maxY, boolean hasDuplicates) {
+        this(numPoints, minX, maxX, minY, maxY, hasDuplicates, true);
+    }
+
+    private PointStats(int numPoints, int minX, int maxX, int minY, int maxY, boolean hasDuplicates,
+                       boolean verified) {
+        this.numPoints = numPoints;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.hasDuplicates = hasDuplicates;
+        this.verified = verified;
+    }
+
+    /**
+     * Stats as claimed by a file header, after checking they are at least consistent
+     * @param numPoints number of points
+     * @param minX smallest X
+     * @param maxX largest X
+     * @param minY smallest Y
+     * @param maxY largest Y
+     * @param hasDuplicates whether any point may occur more than once
+     * @return unverified stats
+     * @throws IOException if a minimum is above its maximum
+     */
+    static PointStats fromHeader(int numPoints, int minX, int maxX, int minY, int maxY,
+                                 boolean hasDuplicates) throws IOException {
+        if (numPoints > 0 && (minX > maxX || minY > maxY)) {
+            throw new IOException("Invalid header: bounds [" + minX + ", " + maxX + "] x [" + minY + ", "
+                + maxY + "] are empty");
+        }
+        return new PointStats(numPoints, minX, maxX, minY, maxY, hasDuplicates, false);
+    }
+
+    /**
+     * Compute stats of coordinate arrays
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @return stats of the first n points
+     */
+    public static PointStats compute(int[] xCoords, int[] yCoords, int n) {
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        long[] packed = new long[n];
+        for (int k = 0; k < n; k++) {
+            minX = Math.min(minX, xCoords[k]);
+            maxX = Math.max(maxX, xCoords[k]);
+            minY = Math.min(minY, yCoords[k]);
+            maxY = Math.max(maxY, yCoords[k]);
+            packed[k] = ((long)xCoords[k] << 32) | (yCoords[k] & 0xFFFFFFFFL);
+        }
+
+        // Equal points are adjacent once sorted
+        Arrays.parallelSort(packed);
+        boolean hasDuplicates = false;
+        for (int k = 1; k < n && !hasDuplicates; k++) {
+            hasDuplicates = packed[k] == packed[k - 1];
+        }
+
+        return new PointStats(n, minX, maxX, minY, maxY, hasDuplicates);
+    }
+
+    /**
+     * Running count and bounds of points as they are written
+     */
+    static final class Accumulator {
+        long count;
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+
+        void add(int[] xs, int[] ys, int offset, int n) {
+            for (int k = offset; k < offset + n; k++) {
+                minX = Math.min(minX, xs[k]);
+                maxX = Math.max(maxX, xs[k]);
+                minY = Math.min(minY, ys[k]);
+                maxY = Math.max(maxY, ys[k]);
+            }
+            count += n;
+        }
+
+        PointStats toStats(boolean hasDuplicates) {
+            return new PointStats((int)Math.min(count, Integer.MAX_VALUE), minX, maxX, minY, maxY, hasDuplicates);
+        }
+    }
+
+    /**
+     * Check that every dot product of two difference vectors fits in a long,
+     * like TrianglesUtils.fitsExactDotProduct but from the bounds alone
+     * @return true if the brute-force kernel is exact for these points
+     */
+    public boolean fitsExactDotProduct() {
+        return (long)maxX - minX <= Integer.MAX_VALUE && (long)maxY - minY <= Integer.MAX_VALUE;
+    }
+}
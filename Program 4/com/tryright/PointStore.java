@@ -2,7 +2,7 @@ package com.tryright;
 
 /**
  * Point storage interface
- * @version 1.1
+ * @version 1.3
  */
 public interface PointStore {
   /**
@@ -23,6 +23,82 @@ public interface PointStore {
    */
   int getY(int idx);
 
+  /**
+   * Copy a range of points into coordinate arrays.
+   * Bounds are checked once for the whole range, so implementations can skip the
+   * per-point checks of getX/getY.
+   *
+   * @param startIdx index of the first point to copy
+   * @param count number of points to copy
+   * @param xs destination for X values
+   * @param ys destination for Y values
+   * @param offset index in xs and ys of the first copied point
+   * @throws IndexOutOfBoundsException if the source or destination range is out of bounds
+   */
+  default void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+    checkRange(startIdx, count, numPoints(), xs, ys, offset);
+    for (int k = 0; k < count; k++) {
+      xs[offset + k] = getX(startIdx + k);
+      ys[offset + k] = getY(startIdx + k);
+    }
+  }
+
+  /**
+   * Check a getPoints range
+   *
+   * @param startIdx index of the first point to copy
+   * @param count number of points to copy
+   * @param numPoints number of points in the store
+   * @param xs destination for X values
+   * @param ys destination for Y values
+   * @param offset index in xs and ys of the first copied point
+   * @throws IndexOutOfBoundsException if the source or destination range is out of bounds
+   */
+  static void checkRange(int startIdx, int count, int numPoints, int[] xs, int[] ys, int offset) {
+    if (startIdx < 0 || count < 0 || startIdx > numPoints - count
+        || offset < 0 || offset > xs.length - count || offset > ys.length - count) {
+      throw new IndexOutOfBoundsException("Range " + startIdx + ".." + ((long)startIdx + count)
+          + " out of bounds for " + numPoints + " points");
+    }
+  }
+
+  /**
+   * Get precomputed count, bounds and duplicate flag, if the store has them
+   *
+   * @return stats known without scanning the points, or null
+   */
+  default PointStats getStats() {
+    return null;
+  }
+
+  /**
+   * Get a view of a contiguous range of points, without copying them.
+   * Point k of the view is point startIdx + k of this store. The view reads through
+   * to this store, so it is only valid while this store is open; closing it does nothing.
+   *
+   * @param startIdx index of the first point in the view
+   * @param count number of points in the view
+   * @return view of the range
+   * @throws IndexOutOfBoundsException if the range is out of bounds
+   */
+  default PointStore slice(int startIdx, int count) {
+    return new PointStoreView.Slice(this, startIdx, count);
+  }
+
+  /**
+   * Get a view of selected points, in the given order, without copying them.
+   * Point k of the view is point indices[k] of this store. The array is used as is,
+   * not copied, and must not change while the view is in use. The view reads through
+   * to this store, so it is only valid while this store is open; closing it does nothing.
+   *
+   * @param indices indices of the selected points (may repeat)
+   * @return view of the selected points
+   * @throws IndexOutOfBoundsException if an index is out of bounds
+   */
+  default PointStore select(int[] indices) {
+    return new PointStoreView.Selection(this, indices);
+  }
+
   /**
    * Get number of points in store
    *
@@ -0,0 +1,296 @@
+package com.tryright;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * PointStoreRegistry - opens point files by looking at their contents, not their names
+ *
+ * Each registered format has a detector, which sees the file name and its first
+ * HEAD_BYTES bytes, and an opener. The first detector to match wins. Built in, in order:
+ *
+ *   gzip        magic 1F 8B 08; text decompressed as a stream straight into the parser
+ *   v2          magic "TRPT" and version 2; BinPointStore, or ColumnPointStore for columnar files
+ *   compressed  magic "TRPZ"; CompressedPointStore
+ *   text        only text bytes (tab, line breaks, printable ASCII); TextPointStore
+ *   raw         a whole number of 8-byte points that does not look like text; BinPointStore
+ *
+ * A raw file whose first point reads as a gzip, version 2 or compressed magic is still
+ * raw if that format does not hold up and the file is a whole number of points.
+ * An empty file is raw if its name ends in .dat (zero points) and text otherwise. A file
+ * that is neither, such as text with a byte order mark or non-ASCII bytes, is refused
+ * rather than read as binary points.
+ * Formats registered later are tried before the built-in ones.
+ */
+public final class PointStoreRegistry {
+
+    // Bytes read from the start of a file for detection
+    static final int HEAD_BYTES = 4096;
+
+    private static final int GZIP_MAGIC = 0x8B1F; // 1F 8B read little-endian
+    private static final int GZIP_DEFLATE = 8;
+    private static final int GZIP_RESERVED_FLAGS = 0xE0;
+    private static final int GZIP_BUFFER = 1 << 16;
+
+    private static final int POINT_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Decides whether a file is in a format
+     */
+    @FunctionalInterface
+    public interface Detector {
+        /**
+         * @param filename path of the file
+         * @param head first bytes of the file (fewer than HEAD_BYTES for short files), little-endian
+         * @return true if the file looks like this format
+         */
+        boolean matches(String filename, ByteBuffer head);
+    }
+
+    /**
+     * Opens a file of a detected format
+     */
+    @FunctionalInterface
+    public interface Opener {
+        PointStore open(String filename) throws IOException;
+    }
+
+    private static final class Format {
+        final String name;
+        final Detector detector;
+        final Opener opener;
+
+        Format(String name, Detector detector, Opener opener) {
+            this.name = name;
+            this.detector = detector;
+            this.opener = opener;
+        }
+    }
+
+    private static final List<Format> formats = new CopyOnWriteArrayList<>();
+
+    static {
+        formats.add(new Format("gzip", PointStoreRegistry::isGzip, PointStoreRegistry::openGzip));
+        formats.add(new Format("v2", PointStoreRegistry::isVersion2, PointStoreRegistry::openBinary));
+        formats.add(new Format("compressed", PointStoreRegistry::isCompressed, CompressedPointStore::new));
+        formats.add(new Format("text", PointStoreRegistry::isText, TextPointStore::new));
+        formats.add(new Format("raw", PointStoreRegistry::isRaw, PointStoreRegistry::openRaw));
+    }
+
+    private PointStoreRegistry() {
+    }
+
+    /**
+     * Add a format, tried before every format registered earlier
+     * @param name format name, as returned by detect
+     * @param detector decides whether a file is in the format
+     * @param opener opens such a file
+     */
+    public static void register(String name, Detector detector, Opener opener) {
+        formats.add(0, new Format(name, detector, opener));
+    }
+
+    /**
+     * Open a point file in whatever format its contents show
+     * @param filename path of the file
+     * @return PointStore for the file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static PointStore open(String filename) throws IOException {
+        return find(filename).opener.open(filename);
+    }
+
+    /**
+     * Get the name of the format a file would be opened as
+     * @param filename path of the file
+     * @return "gzip", "v2", "compressed", "text", "raw" or the name of a registered format
+     */
+    public static String detect(String filename) throws IOException {
+        return find(filename).name;
+    }
+
+    /**
+     * Open a text or gzipped text file as a stream of its text
+     * @param filename path of the file
+     * @return decompressing stream for gzip files, plain stream otherwise
+     */
+    static InputStream openText(String filename) throws IOException {
+        boolean gzip = detect(filename).equals("gzip");
+        InputStream in = new FileInputStream(filename);
+        if (!gzip) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, GZIP_BUFFER);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static Format find(String filename) throws IOException {
+        ByteBuffer head = readHead(filename);
+        for (Format format : formats) {
+            if (format.detector.matches(filename, head.duplicate().order(ByteOrder.LITTLE_ENDIAN))) {
+                return format;
+            }
+        }
+        if (looksLikeText(head)) {
+            throw new IOException("Unrecognized point file format: text with a byte order mark, "
+                + "control characters or non-ASCII bytes");
+        }
+        throw new IOException("Unrecognized point file format: size is not a multiple of " + POINT_SIZE + " bytes");
+    }
+
+    private static ByteBuffer readHead(String filename) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer head = ByteBuffer.allocate((int)Math.min(HEAD_BYTES, channel.size()));
+            while (head.hasRemaining() && channel.read(head, head.position()) >= 0) {
+            }
+            return head.flip();
+        }
+    }
+
+    // Magic and version, and a header that holds up; a file that is not whole points has
+    // no raw reading, so it stays version 2 and the open reports what is wrong with it
+    private static boolean isVersion2(String filename, ByteBuffer head) {
+        if (head.remaining() < 8 || head.getInt(0) != PointFileHeader.MAGIC
+            || head.getInt(4) != PointFileHeader.VERSION_2) {
+            return false;
+        }
+        if (new File(filename).length() % POINT_SIZE != 0) {
+            return true;
+        }
+        try {
+            PointFileHeader.read(filename);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Magic, method and zero reserved flag bits, and the head inflates without error (running
+    // out of head bytes is fine); as with version 2, whole points that fail fall through to raw
+    private static boolean isGzip(String filename, ByteBuffer head) {
+        if (head.remaining() < 4 || (head.getShort(0) & 0xFFFF) != GZIP_MAGIC || head.get(2) != GZIP_DEFLATE) {
+            return false;
+        }
+        if (new File(filename).length() % POINT_SIZE != 0) {
+            return true;
+        }
+        if ((head.get(3) & GZIP_RESERVED_FLAGS) != 0) {
+            return false;
+        }
+        byte[] bytes = new byte[head.remaining()];
+        head.duplicate().get(bytes);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            in.read(new byte[HEAD_BYTES]);
+            return true;
+        } catch (EOFException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Magic and a header consistent with the file size, checked as CompressedPointStore does
+    private static boolean isCompressed(String filename, ByteBuffer head) {
+        if (head.remaining() < 4 || head.getInt(0) != CompressedPointStore.MAGIC) {
+            return false;
+        }
+        long fileSize = new File(filename).length();
+        if (fileSize % POINT_SIZE != 0) {
+            return true;
+        }
+        try {
+            CompressedPointStore.checkHeader(head, fileSize);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Text files hold only whitespace and printable ASCII; raw binary points almost always hold a
+    // byte outside that set (any coordinate below 2^24 in magnitude starts with 00 or FF)
+    private static boolean isText(String filename, ByteBuffer head) {
+        if (!head.hasRemaining()) {
+            return !filename.endsWith(".dat");
+        }
+        for (int k = head.position(); k < head.limit(); k++) {
+            int b = head.get(k) & 0xFF;
+            if ((b < ' ' && b != '\t' && b != '\n' && b != '\r' && b != 0x0B && b != '\f') || b > '~') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Raw files are whole 8-byte points. Nearly all of their first bytes being text means
+    // text the parser does not accept, which must not be reinterpreted as coordinates.
+    private static boolean isRaw(String filename, ByteBuffer head) {
+        return new File(filename).length() % POINT_SIZE == 0 && !looksLikeText(head);
+    }
+
+    // A UTF-8 byte order mark, or no NUL bytes and at least 95% text bytes (ASCII text or UTF-8
+    // sequences). Raw points below 2^24 in magnitude start with 00 or FF, and random
+    // coordinates hold about 11% control bytes.
+    private static boolean looksLikeText(ByteBuffer head) {
+        int start = head.position(), end = head.limit();
+        if (end - start >= 3 && (head.get(start) & 0xFF) == 0xEF && (head.get(start + 1) & 0xFF) == 0xBB
+            && (head.get(start + 2) & 0xFF) == 0xBF) {
+            return true;
+        }
+        if (end == start) {
+            return false;
+        }
+        int textBytes = 0;
+        for (int k = start; k < end; k++) {
+            int b = head.get(k) & 0xFF;
+            if (b == 0) {
+                return false;
+            }
+            if (b >= ' ' || b == '\t' || b == '\n' || b == '\r') {
+                textBytes++;
+            }
+        }
+        return textBytes * 20L >= (end - start) * 19L;
+    }
+
+    private static PointStore openBinary(String filename) throws IOException {
+        // Columnar version 2 files need the column store
+        if (PointFileHeader.read(filename).columnar) {
+            return new ColumnPointStore(filename);
+        }
+        return new BinPointStore(filename);
+    }
+
+    private static PointStore openRaw(String filename) throws IOException {
+        return new BinPointStore(filename, BinPointStore.SEGMENT_SHIFT, true);
+    }
+
+    // Decompress straight into the parser; the gzip trailer's size (mod 2^32) presizes the arrays
+    private static PointStore openGzip(String filename) throws IOException {
+        long size = 0;
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            if (file.length() >= 18) {
+                file.seek(file.length() - 4);
+                size = Integer.reverseBytes(file.readInt()) & 0xFFFFFFFFL;
+            }
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(filename), GZIP_BUFFER)) {
+            return new TextPointStore(in, size);
+        }
+    }
+}
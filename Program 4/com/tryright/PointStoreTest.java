@@ -3,20 +3,36 @@ package com.tryright;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.ThrowingSupplier;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DisplayName("PointStore")
 class PointStoreTest {
   private static File binTestFile;
   private static File binBadFile;
+  private static File binV2File;
+  private static File columnFile;
+  private static File compressedFile;
   private static File textTestFile;
   private static File textBadFile;
 
@@ -35,6 +51,15 @@ class PointStoreTest {
       out.write(new byte[] {0,0,0,3,0,0,0,4});
       out.write(new byte[] {0,0,0,0,0,0,0});
     }
+    binV2File = File.createTempFile("binV2File", "dat");
+    PointFileHeader.write(binV2File.getAbsolutePath(), new int[] {3, 0, 3, 7, 3},
+        new int[] {4, 0, 6, 4, 11}, 5, true);
+    columnFile = File.createTempFile("columnFile", "dat");
+    PointFileHeader.write(columnFile.getAbsolutePath(), new int[] {3, 0, 3, 7, 3},
+        new int[] {4, 0, 6, 4, 11}, 5, true, true);
+    compressedFile = File.createTempFile("compressedFile", "tpz");
+    CompressedPointStore.write(compressedFile.getAbsolutePath(), new int[] {3, 0, 3, 7, 3},
+        new int[] {4, 0, 6, 4, 11}, 5, CompressedPointStore.Order.INPUT, 2);
     textTestFile = File.createTempFile("textTestFile", "txt");
     try (PrintWriter out = new PrintWriter(textTestFile)) {
       out.println("5");
@@ -58,13 +83,19 @@ class PointStoreTest {
   public static void tearDown() throws IOException {
     binTestFile.delete();
     binBadFile.delete();
+    binV2File.delete();
+    columnFile.delete();
+    compressedFile.delete();
     textTestFile.delete();
     textBadFile.delete();
   }
 
   static Stream<PointStore> testFiles() throws IOException {
       return Stream.of(new TextPointStore(textTestFile.getAbsolutePath()),
-          new BinPointStore(binTestFile.getAbsolutePath()));
+          new BinPointStore(binTestFile.getAbsolutePath()),
+          new BinPointStore(binV2File.getAbsolutePath()),
+          new ColumnPointStore(columnFile.getAbsolutePath()),
+          new CompressedPointStore(compressedFile.getAbsolutePath()));
   }
 
   @ParameterizedTest
@@ -132,4 +163,872 @@ class PointStoreTest {
     assertThrows(IndexOutOfBoundsException.class, () -> store.getY(-1));
     store.close();
   }
+
+  @ParameterizedTest
+  @DisplayName("text format error messages")
+  @CsvSource(delimiter = '|', value = {
+      "''|Empty file",
+      "five\\n3 4|First line must be an integer",
+      "2\\n3 4 5\\n1 1|Invalid point format: expected 'x y'",
+      "2\\n3\\n1 1|Invalid point format: expected 'x y'",
+      "2\\n3 4\\n1 2147483648|Invalid coordinate values",
+      "2\\n3 4\\n1 1.0|Invalid coordinate values",
+      "3\\n3 4\\n\\n1 1\\n|Expected 3 points but found only 2"
+  })
+  void testTextErrors(String content, String message) throws IOException {
+    File file = File.createTempFile("textErrorFile", "txt");
+    try {
+      try (Writer out = new FileWriter(file)) {
+        out.write(content.replace("\\n", "\n"));
+      }
+      IOException e = assertThrows(IOException.class, () -> new TextPointStore(file.getAbsolutePath()));
+      assertEquals(message, e.getMessage());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("text format whitespace and line endings")
+  void testTextWhitespace() throws IOException {
+    File file = File.createTempFile("textSpaceFile", "txt");
+    try {
+      try (Writer out = new FileWriter(file)) {
+        out.write(" 3 \r\n\t-3\t+4 \r\r\n0   -2147483648\n  7 4");
+      }
+      PointStore store = new TextPointStore(file.getAbsolutePath());
+      assertEquals(3, store.numPoints());
+      assertEquals(-3, store.getX(0));
+      assertEquals(4, store.getY(0));
+      assertEquals(Integer.MIN_VALUE, store.getY(1));
+      assertEquals(7, store.getX(2));
+      store.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("parallel text parsing matches sequential")
+  void testTextParallel() throws IOException {
+    String filename = "test/test_long_list.txt";
+    PointStore sequential = new TextPointStore(filename, 1);
+    PointStore parallel = new TextPointStore(filename, 4, 1000);
+    assertEquals(sequential.numPoints(), parallel.numPoints());
+    for (int k = 0; k < sequential.numPoints(); k++) {
+      assertEquals(sequential.getX(k), parallel.getX(k));
+      assertEquals(sequential.getY(k), parallel.getY(k));
+    }
+
+    IOException e = assertThrows(IOException.class,
+        () -> new TextPointStore("test/test_too_short.txt", 4, 1));
+    assertEquals("Expected 4 points but found only 3", e.getMessage());
+  }
+
+  @Test
+  @DisplayName("binary file mapped in several segments")
+  void testBinSegments() throws IOException {
+    // 16-byte segments: two points each, so the 5 points span three segments
+    PointStore store = new BinPointStore(binTestFile.getAbsolutePath(), 4);
+    assertEquals(5, store.numPoints());
+    assertEquals(3, store.getX(0));
+    assertEquals(6, store.getY(2));
+    assertEquals(7, store.getX(3));
+    assertEquals(11, store.getY(4));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getX(5));
+    store.close();
+  }
+
+  static Stream<PointStore> testBulkRead() throws IOException {
+    PointStore text = new TextPointStore(textTestFile.getAbsolutePath());
+    return Stream.of(text,
+        new BinPointStore(binTestFile.getAbsolutePath()),
+        new BinPointStore(binTestFile.getAbsolutePath(), 4),
+        new BinPointStore(binV2File.getAbsolutePath(), 4),
+        new ColumnPointStore(columnFile.getAbsolutePath()),
+        new ColumnPointStore(columnFile.getAbsolutePath(), 1),
+        new CompressedPointStore(compressedFile.getAbsolutePath()),
+        new CompressedPointStore(compressedFile.getAbsolutePath()).slice(0, 5),
+        new BinPointStore(binTestFile.getAbsolutePath()).select(new int[] {0, 1, 2, 3, 4}),
+        new PointStore() { // interface default
+          public int getX(int idx) { return text.getX(idx); }
+          public int getY(int idx) { return text.getY(idx); }
+          public int numPoints() { return text.numPoints(); }
+          public void close() { }
+        });
+  }
+
+  @ParameterizedTest
+  @DisplayName("bulk read")
+  @MethodSource
+  void testBulkRead(PointStore store) throws IOException {
+    int[] xs = new int[7];
+    int[] ys = new int[7];
+    store.getPoints(1, 4, xs, ys, 2);
+    assertArrayEquals(new int[] {0, 0, 0, 3, 7, 3, 0}, xs);
+    assertArrayEquals(new int[] {0, 0, 0, 6, 4, 11, 0}, ys);
+    store.getPoints(5, 0, xs, ys, 7);
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getPoints(2, 4, xs, ys, 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getPoints(-1, 2, xs, ys, 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getPoints(0, 5, xs, ys, 3));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getPoints(0, -1, xs, ys, 0));
+    store.close();
+  }
+
+  @Test
+  @DisplayName("version 2 header")
+  void testBinVersion2() throws IOException {
+    BinPointStore raw = new BinPointStore(binTestFile.getAbsolutePath());
+    assertEquals(1, raw.getVersion());
+    assertNull(raw.getStats());
+    raw.close();
+
+    BinPointStore store = new BinPointStore(binV2File.getAbsolutePath());
+    assertEquals(2, store.getVersion());
+    PointStats stats = store.getStats();
+    assertEquals(5, stats.numPoints);
+    assertEquals(0, stats.minX);
+    assertEquals(7, stats.maxX);
+    assertEquals(0, stats.minY);
+    assertEquals(11, stats.maxY);
+    assertFalse(stats.hasDuplicates);
+    store.verifyChecksum();
+    store.close();
+
+    // Flip one payload byte: still readable, but the checksum catches it
+    File corrupt = File.createTempFile("binV2Corrupt", "dat");
+    try {
+      PointFileHeader.write(corrupt.getAbsolutePath(), new int[] {1, 1}, new int[] {2, 2}, 2, true);
+      try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+        file.seek(PointFileHeader.HEADER_SIZE);
+        file.write(9);
+      }
+      BinPointStore bad = new BinPointStore(corrupt.getAbsolutePath());
+      assertTrue(bad.getStats().hasDuplicates);
+      assertEquals(9, bad.getX(0));
+      assertThrows(IOException.class, bad::verifyChecksum);
+      bad.close();
+
+      // Header claims distinct points: only a hint, the brute-force count still sees the duplicate
+      int[] dupX = {0, 0, 1, 0};
+      int[] dupY = {0, 0, 0, 1};
+      PointFileHeader.write(corrupt.getAbsolutePath(), dupX, dupY, 4, false);
+      try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+        file.seek(8);
+        file.writeInt(0); // no duplicates flag
+      }
+      BinPointStore claimed = new BinPointStore(corrupt.getAbsolutePath());
+      assertFalse(claimed.getStats().verified);
+      assertFalse(claimed.getStats().hasDuplicates);
+      int expected = TrianglesUtils.countRightTriangles(dupX, dupY, 4, 0, 4, Kernel.HASH, null);
+      try (SequentialEngine engine = new SequentialEngine(Kernel.BRUTE_FORCE)) {
+        assertEquals(expected, engine.count(claimed).count);
+      }
+      claimed.close();
+
+      // Minimum above maximum
+      try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+        file.seek(24);
+        file.writeInt(Integer.reverseBytes(5));
+        file.writeInt(Integer.reverseBytes(1));
+      }
+      assertThrows(IOException.class, () -> new BinPointStore(corrupt.getAbsolutePath()));
+
+      // Payload shorter than the header says
+      try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+        file.setLength(PointFileHeader.HEADER_SIZE + 8);
+      }
+      assertThrows(IOException.class, () -> new BinPointStore(corrupt.getAbsolutePath()));
+    } finally {
+      corrupt.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("columnar layout")
+  void testColumnar() throws IOException {
+    ColumnPointStore store = new ColumnPointStore(columnFile.getAbsolutePath());
+    assertEquals(1, store.numSegments());
+    IntBuffer xs = store.getXColumn(0);
+    IntBuffer ys = store.getYColumn(0);
+    assertEquals(5, xs.remaining());
+    assertEquals(7, xs.get(3));
+    assertEquals(11, ys.get(4));
+    assertEquals(7, store.getStats().maxX);
+    store.verifyChecksum();
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getXColumn(1));
+    store.close();
+
+    // Two points per segment: 5 points span three segments
+    ColumnPointStore segmented = new ColumnPointStore(columnFile.getAbsolutePath(), 1);
+    assertEquals(3, segmented.numSegments());
+    assertEquals(3, segmented.getXColumn(2).get(0));
+    assertEquals(4, segmented.getY(3));
+    segmented.close();
+
+    // The y column starts 64-byte aligned after the 64-byte header
+    assertEquals(128, PointFileHeader.read(columnFile.getAbsolutePath()).yColumnOffset());
+    assertThrows(IOException.class, () -> new ColumnPointStore(binV2File.getAbsolutePath()));
+    assertThrows(IOException.class, () -> new BinPointStore(columnFile.getAbsolutePath()));
+  }
+
+  @ParameterizedTest
+  @DisplayName("compressed round trip")
+  @CsvSource({
+      "INPUT, 1", "INPUT, 3", "ROW, 1", "ROW, 4", "ROW, 4096", "MORTON, 2", "MORTON, 4096"
+  })
+  void testCompressed(CompressedPointStore.Order order, int blockPoints) throws IOException {
+    // Extremes, negatives and duplicates, in a scrambled order
+    int[] xs = {5, Integer.MIN_VALUE, -3, Integer.MAX_VALUE, 5, 0, -3, 1000000, 7, Integer.MIN_VALUE};
+    int[] ys = {2, Integer.MAX_VALUE, -3, Integer.MIN_VALUE, 2, 0, 9, -1000000, 2, Integer.MIN_VALUE};
+    File file = File.createTempFile("compressed", "tpz");
+    try {
+      CompressedPointStore.write(file.getAbsolutePath(), xs, ys, xs.length, order, blockPoints);
+      for (int parallelism : new int[] {1, 3}) {
+        CompressedPointStore store = new CompressedPointStore(file.getAbsolutePath(), parallelism);
+        assertEquals(order, store.getOrder());
+        assertEquals(xs.length, store.numPoints());
+        assertTrue(store.getStats().hasDuplicates);
+        assertEquals(Integer.MIN_VALUE, store.getStats().minX);
+        assertEquals(Integer.MAX_VALUE, store.getStats().maxY);
+
+        // Same multiset of points; same order too unless sorted
+        long[] expected = new long[xs.length];
+        long[] actual = new long[xs.length];
+        for (int k = 0; k < xs.length; k++) {
+          expected[k] = (long)xs[k] << 32 | (ys[k] & 0xFFFFFFFFL);
+          actual[k] = (long)store.getX(k) << 32 | (store.getY(k) & 0xFFFFFFFFL);
+        }
+        if (order != CompressedPointStore.Order.INPUT) {
+          Arrays.sort(expected);
+          Arrays.sort(actual);
+        }
+        assertArrayEquals(expected, actual);
+        store.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("compressed format errors")
+  void testCompressedErrors() throws IOException {
+    File file = File.createTempFile("compressed", "tpz");
+    try {
+      CompressedPointStore.write(file.getAbsolutePath(), new int[] {1, 200, 3}, new int[] {4, 5, 600}, 3,
+          CompressedPointStore.Order.ROW, 2);
+
+      // Set the continuation bit on the last byte of the first block: its last varint runs off the block
+      long indexOffset;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.seek(48);
+        indexOffset = Long.reverseBytes(raf.readLong());
+        raf.seek(indexOffset + 8);
+        long secondBlock = Long.reverseBytes(raf.readLong());
+        raf.seek(secondBlock - 1);
+        int last = raf.read();
+        raf.seek(secondBlock - 1);
+        raf.write(last | 0x80);
+      }
+      IOException corrupt = assertThrows(IOException.class, () -> new CompressedPointStore(file.getAbsolutePath()));
+      assertTrue(corrupt.getMessage().contains("block 0"));
+
+      // Truncated index
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(indexOffset + 4);
+      }
+      assertThrows(IOException.class, () -> new CompressedPointStore(file.getAbsolutePath()));
+    } finally {
+      file.delete();
+    }
+    assertThrows(IOException.class, () -> new CompressedPointStore(textTestFile.getAbsolutePath()));
+  }
+
+  @ParameterizedTest
+  @DisplayName("writer round trip")
+  @CsvSource({"TEXT, .txt", "RAW, .dat", "V2, .dat", "COLUMNAR, .dat", "COMPRESSED, .tpz"})
+  void testWriter(PointFormat format, String suffix) throws IOException {
+    int[] xs = {-7, Integer.MAX_VALUE, 0, Integer.MIN_VALUE, 42};
+    int[] ys = {3, -1, 0, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    File file = File.createTempFile("writer", suffix);
+    try {
+      try (PointStoreWriter writer = PointStoreWriter.create(file.getAbsolutePath(), format)) {
+        writer.write(xs[0], ys[0]);
+        writer.write(xs, ys, 1, 3);
+        writer.write(xs[4], ys[4]);
+        writer.setDistinct(true);
+        assertEquals(5, writer.numPoints());
+      }
+      PointStore store = TrianglesUtils.createPointStore(file.getAbsolutePath());
+      assertEquals(xs.length, store.numPoints());
+      long[] expected = new long[xs.length];
+      long[] actual = new long[xs.length];
+      for (int k = 0; k < xs.length; k++) {
+        expected[k] = (long)xs[k] << 32 | (ys[k] & 0xFFFFFFFFL);
+        actual[k] = (long)store.getX(k) << 32 | (store.getY(k) & 0xFFFFFFFFL);
+      }
+      if (format == PointFormat.COMPRESSED) {
+        // Row-sorted by default
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+      }
+      assertArrayEquals(expected, actual);
+      PointStats stats = store.getStats();
+      if (stats != null) {
+        assertFalse(stats.hasDuplicates);
+        assertEquals(Integer.MIN_VALUE, stats.minX);
+        assertEquals(Integer.MAX_VALUE, stats.maxX);
+        assertEquals(Integer.MIN_VALUE, stats.minY);
+        assertEquals(Integer.MAX_VALUE, stats.maxY);
+      }
+      store.close();
+
+      // Without setDistinct the header can only say points may repeat
+      try (PointStoreWriter writer = PointStoreWriter.create(file.getAbsolutePath(), format)) {
+        writer.write(1, 2);
+      }
+      store = TrianglesUtils.createPointStore(file.getAbsolutePath());
+      assertEquals(1, store.numPoints());
+      if (store.getStats() != null && format != PointFormat.COMPRESSED) {
+        assertTrue(store.getStats().hasDuplicates);
+      }
+      store.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("convert between formats")
+  void testConvert() throws IOException {
+    // Text in batches of two points
+    TextPointStore.Chunk chunk = new TextPointStore.Chunk(2);
+    int read = 0;
+    try (TextPointStore.BatchReader batches = new TextPointStore.BatchReader(textTestFile.getAbsolutePath())) {
+      assertEquals(5, batches.expectedCount());
+      while (batches.read(chunk)) {
+        read += chunk.count;
+      }
+    }
+    assertEquals(5, read);
+    assertEquals(11, chunk.ys[0]);
+
+    File compressed = File.createTempFile("convert", ".tpz");
+    File columnar = File.createTempFile("convert", ".dat");
+    File text = File.createTempFile("convert", ".txt");
+    try {
+      assertEquals(5, Convert.convert(textTestFile.getAbsolutePath(), compressed.getAbsolutePath(),
+          PointFormat.COMPRESSED));
+      assertEquals(5, Convert.convert(compressed.getAbsolutePath(), columnar.getAbsolutePath(),
+          PointFormat.COLUMNAR));
+      assertEquals(5, Convert.convert(columnar.getAbsolutePath(), text.getAbsolutePath(), PointFormat.TEXT));
+      // The test points are distinct, and the compressed file knows it
+      assertFalse(new ColumnPointStore(columnar.getAbsolutePath()).getStats().hasDuplicates);
+
+      // Row order from the compressed file: (0,0) (3,4) (7,4) (3,6) (3,11)
+      TextPointStore store = new TextPointStore(text.getAbsolutePath());
+      assertEquals(5, store.numPoints());
+      assertEquals(0, store.getX(0));
+      assertEquals(7, store.getX(2));
+      assertEquals(11, store.getY(4));
+
+      IOException e = assertThrows(IOException.class, () -> Convert.convert(textBadFile.getAbsolutePath(),
+          text.getAbsolutePath(), PointFormat.V2));
+      assertEquals("Expected 5 points but found only 4", e.getMessage());
+      assertFalse(text.exists());
+    } finally {
+      compressed.delete();
+      columnar.delete();
+      text.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("format detection from contents")
+  void testDetection() throws IOException {
+    File gzip = File.createTempFile("points", ".txt.gz");
+    File misnamedText = File.createTempFile("points", ".dat");
+    File misnamedBin = File.createTempFile("points", ".txt");
+    File empty = File.createTempFile("points", ".dat");
+    try {
+      try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzip))) {
+        out.write(Files.readAllBytes(textTestFile.toPath()));
+      }
+      Files.copy(textTestFile.toPath(), misnamedText.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+      Files.copy(binTestFile.toPath(), misnamedBin.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+
+      assertEquals("gzip", PointStoreRegistry.detect(gzip.getAbsolutePath()));
+      assertEquals("text", PointStoreRegistry.detect(misnamedText.getAbsolutePath()));
+      assertEquals("raw", PointStoreRegistry.detect(misnamedBin.getAbsolutePath()));
+      assertEquals("v2", PointStoreRegistry.detect(columnFile.getAbsolutePath()));
+      assertEquals("compressed", PointStoreRegistry.detect(compressedFile.getAbsolutePath()));
+      for (File file : new File[] {gzip, misnamedText, misnamedBin}) {
+        PointStore store = TrianglesUtils.createPointStore(file.getAbsolutePath());
+        assertEquals(5, store.numPoints());
+        assertEquals(7, store.getX(3));
+        assertEquals(11, store.getY(4));
+        store.close();
+      }
+      assertEquals(0, TrianglesUtils.createPointStore(empty.getAbsolutePath()).numPoints());
+
+      // Text the parser does not take, or a partial point, is refused rather than read as raw points
+      byte[] text = Files.readAllBytes(textTestFile.toPath());
+      byte[] bom = new byte[text.length + 3];
+      bom[0] = (byte)0xEF;
+      bom[1] = (byte)0xBB;
+      bom[2] = (byte)0xBF;
+      System.arraycopy(text, 0, bom, 3, text.length);
+      byte[] accented = Arrays.copyOf(text, text.length + 8);
+      System.arraycopy("# caf\u00e9\n".getBytes(StandardCharsets.UTF_8), 0, accented, text.length, 8);
+      byte[] partial = Arrays.copyOf(Files.readAllBytes(binTestFile.toPath()), 12);
+      for (byte[] contents : new byte[][] {bom, accented, partial}) {
+        Files.write(misnamedBin.toPath(), contents);
+        assertThrows(IOException.class, () -> PointStoreRegistry.detect(misnamedBin.getAbsolutePath()));
+      }
+
+      // Gzipped text streams through Convert too
+      File converted = File.createTempFile("points", ".dat");
+      try {
+        assertEquals(5, Convert.convert(gzip.getAbsolutePath(), converted.getAbsolutePath(), PointFormat.V2));
+      } finally {
+        converted.delete();
+      }
+    } finally {
+      gzip.delete();
+      misnamedText.delete();
+      misnamedBin.delete();
+      empty.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("raw files starting like another format stay raw")
+  void testRawLookalikes() throws IOException {
+    // First point (1414680660, 33554432) is "TRPT" and version 2; the rest is no valid header
+    int[] xs = {1414680660, 1, 0, 5, -3, 0, 7, 2, 0, 4};
+    int[] ys = {33554432, 2, 0, 5, 9, 1, -7, 2, 8, 0};
+    File raw = File.createTempFile("rawTrpt", ".dat");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(raw))) {
+        for (int k = 0; k < xs.length; k++) {
+          out.writeInt(xs[k]);
+          out.writeInt(ys[k]);
+        }
+      }
+      assertThrows(IOException.class, () -> PointFileHeader.read(raw.getAbsolutePath()));
+      assertEquals("raw", PointStoreRegistry.detect(raw.getAbsolutePath()));
+      PointStore store = TrianglesUtils.createPointStore(raw.getAbsolutePath());
+      try {
+        assertEquals(xs.length, store.numPoints());
+        assertNull(store.getStats());
+        for (int k = 0; k < xs.length; k++) {
+          assertEquals(xs[k], store.getX(k));
+          assertEquals(ys[k], store.getY(k));
+        }
+      } finally {
+        store.close();
+      }
+
+      // Not whole points: no raw reading, so the header error is reported
+      try (RandomAccessFile file = new RandomAccessFile(raw, "rw")) {
+        file.setLength(xs.length * 8 + 4);
+      }
+      assertThrows(IOException.class, () -> TrianglesUtils.createPointStore(raw.getAbsolutePath()));
+
+      // First x is a gzip magic whose stored block lengths do not match, or "TRPZ" with no
+      // consistent header (short, then long enough for a header)
+      int[][] lookalikes = {
+          {0x1F8B0800, 0, 3, 4, 5, 6},
+          {0x5452505A, 1, 2, 3},
+          {0x5452505A, 1, 2, 3, 0, 0, 7, 7, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10}};
+      for (int[] coords : lookalikes) {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(raw))) {
+          for (int c : coords) {
+            out.writeInt(c);
+          }
+        }
+        assertEquals("raw", PointStoreRegistry.detect(raw.getAbsolutePath()));
+        PointStore lookalike = TrianglesUtils.createPointStore(raw.getAbsolutePath());
+        try {
+          assertEquals(coords.length / 2, lookalike.numPoints());
+          assertEquals(coords[0], lookalike.getX(0));
+          assertEquals(coords[coords.length - 1], lookalike.getY(coords.length / 2 - 1));
+        } finally {
+          lookalike.close();
+        }
+      }
+    } finally {
+      raw.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("binary store unmaps on close")
+  void testBinClose() throws IOException {
+    File file = File.createTempFile("unmap", ".dat");
+    try {
+      Files.copy(binTestFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      File maps = new File("/proc/self/maps");
+      for (int segmentShift : new int[] {30, 4}) {
+        BinPointStore store = new BinPointStore(file.getAbsolutePath(), segmentShift);
+        assertEquals(7, store.getX(3));
+        if (maps.exists() && MappedArena.canUnmap()) {
+          assertTrue(new String(Files.readAllBytes(maps.toPath())).contains(file.getName()));
+        }
+        store.close();
+        store.close();
+
+        // Reads fail fast instead of touching the unmapped file
+        assertThrows(IllegalStateException.class, () -> store.getX(3));
+        assertThrows(IllegalStateException.class, () -> store.getY(0));
+        assertThrows(IllegalStateException.class, () -> store.getPoints(0, 1, new int[1], new int[1], 0));
+        assertThrows(IllegalStateException.class, store::verifyChecksum);
+        assertEquals(5, store.numPoints());
+        if (maps.exists() && MappedArena.canUnmap()) {
+          assertFalse(new String(Files.readAllBytes(maps.toPath())).contains(file.getName()));
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+  @Test
+  @DisplayName("binary store closed while other threads read")
+  void testBinCloseRacingReads() throws Exception {
+    for (int trial = 0; trial < 20; trial++) {
+      BinPointStore store = new BinPointStore("test/test_long_list.dat", 16);
+      PointStore slice = store.slice(1000, 3000);
+      Thread[] readers = new Thread[4];
+      Throwable[] failures = new Throwable[readers.length];
+      for (int t = 0; t < readers.length; t++) {
+        int reader = t;
+        readers[t] = new Thread(() -> {
+          int[] xs = new int[3000];
+          int[] ys = new int[3000];
+          try {
+            // Until close stops them: a read either finishes on the mapping or fails fast
+            while (true) {
+              slice.getPoints(0, 3000, xs, ys, 0);
+              store.getX(reader * 1000);
+              slice.getY(2999);
+            }
+          } catch (Throwable e) {
+            failures[reader] = e;
+          }
+        });
+        readers[t].start();
+      }
+      Thread.sleep(2);
+      store.close();
+      for (int t = 0; t < readers.length; t++) {
+        readers[t].join();
+        assertTrue(failures[t] instanceof IllegalStateException, String.valueOf(failures[t]));
+      }
+    }
+  }
+
+
+  @ParameterizedTest
+  @DisplayName("spatial reordering")
+  @CsvSource({"MORTON, 1", "MORTON, 4", "HILBERT, 1", "HILBERT, 4"})
+  void testSpatial(SpatialPointStore.Curve curve, int parallelism) throws IOException {
+    // A shuffled 64 x 64 grid offset into negative coordinates
+    int side = 64;
+    int n = side * side;
+    int[] xs = new int[n];
+    int[] ys = new int[n];
+    Random random = new Random(44);
+    for (int k = 0; k < n; k++) {
+      xs[k] = k % side - 1000;
+      ys[k] = k / side - 30;
+    }
+    for (int k = n - 1; k > 0; k--) {
+      int j = random.nextInt(k + 1);
+      int t = xs[k]; xs[k] = xs[j]; xs[j] = t;
+      t = ys[k]; ys[k] = ys[j]; ys[j] = t;
+    }
+    PointStore source = new PointStore() {
+      public int getX(int idx) { return xs[idx]; }
+      public int getY(int idx) { return ys[idx]; }
+      public int numPoints() { return n; }
+      public void close() { }
+    };
+
+    SpatialPointStore store = new SpatialPointStore(source, curve, parallelism);
+    assertEquals(n, store.numPoints());
+    assertFalse(store.getStats().hasDuplicates);
+    assertEquals(-1000, store.getStats().minX);
+    int[] permutation = store.getPermutation();
+    boolean[] seen = new boolean[n];
+    for (int k = 0; k < n; k++) {
+      assertEquals(xs[store.originalIndex(k)], store.getX(k));
+      assertEquals(ys[permutation[k]], store.getY(k));
+      seen[permutation[k]] = true;
+      if (k > 0) {
+        long dx = store.getX(k) - store.getX(k - 1);
+        long dy = store.getY(k) - store.getY(k - 1);
+        if (curve == SpatialPointStore.Curve.HILBERT) {
+          // Consecutive cells of a Hilbert curve share an edge
+          assertEquals(1, Math.abs(dx) + Math.abs(dy));
+        } else {
+          assertTrue(CompressedPointStore.mortonCode(store.getX(k) + 1000, store.getY(k) + 30)
+              > CompressedPointStore.mortonCode(store.getX(k - 1) + 1000, store.getY(k - 1) + 30));
+        }
+      }
+    }
+    for (boolean s : seen) {
+      assertTrue(s);
+    }
+    assertThrows(IndexOutOfBoundsException.class, () -> store.getX(n));
+    assertEquals(TrianglesUtils.countRightTriangles(source, 0, n), TrianglesUtils.countRightTriangles(store, 0, n));
+    store.close();
+
+    // Duplicates are found by the sort
+    int[] dupX = {5, 1, 5};
+    int[] dupY = {2, 1, 2};
+    PointStore dupSource = new PointStore() {
+      public int getX(int idx) { return dupX[idx]; }
+      public int getY(int idx) { return dupY[idx]; }
+      public int numPoints() { return 3; }
+      public void close() { }
+    };
+    assertTrue(new SpatialPointStore(dupSource, curve, parallelism).getStats().hasDuplicates);
+  }
+
+  @ParameterizedTest
+  @DisplayName("parallel radix sort")
+  @CsvSource({"1, 0", "1, 1", "1, 5000", "3, 5000", "4, 100000"})
+  void testRadixSort(int parallelism, int n) {
+    Random random = new Random(n);
+    long[] keys = new long[n];
+    int[] values = new int[n];
+    for (int k = 0; k < n; k++) {
+      // Full 64-bit keys (unsigned order) with many repeats
+      keys[k] = k % 3 == 0 ? random.nextLong() : random.nextInt(50);
+      values[k] = k;
+    }
+    long[] expected = keys.clone();
+    SpatialPointStore.radixSort(keys, values, parallelism);
+    for (int k = 0; k < n; k++) {
+      assertEquals(expected[values[k]], keys[k]);
+      if (k > 0) {
+        assertTrue(Long.compareUnsigned(keys[k - 1], keys[k]) <= 0);
+        // Stable: equal keys keep their input order
+        assertTrue(keys[k - 1] != keys[k] || values[k - 1] < values[k]);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("slice and selection views")
+  void testViews() throws IOException {
+    // Points: (3,4) (0,0) (3,6) (7,4) (3,11)
+    BinPointStore store = new BinPointStore(binTestFile.getAbsolutePath());
+    PointStore slice = store.slice(1, 3);
+    assertEquals(3, slice.numPoints());
+    assertEquals(0, slice.getX(0));
+    assertEquals(4, slice.getY(2));
+    assertThrows(IndexOutOfBoundsException.class, () -> slice.getX(3));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.slice(3, 3));
+    assertThrows(IndexOutOfBoundsException.class, () -> slice.slice(1, 3));
+    PointStore inner = slice.slice(1, 2);
+    assertEquals(7, inner.getX(1));
+    assertNull(slice.getStats());
+
+    // Runs, repeats and reversals
+    int[] xs = new int[6];
+    int[] ys = new int[6];
+    PointStore selection = store.select(new int[] {4, 0, 1, 2, 2, 1});
+    selection.getPoints(0, 6, xs, ys, 0);
+    assertArrayEquals(new int[] {3, 3, 0, 3, 3, 0}, xs);
+    assertArrayEquals(new int[] {11, 4, 0, 6, 6, 0}, ys);
+    assertEquals(11, selection.slice(0, 1).getY(0));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.select(new int[] {0, 5}));
+
+    // Counting on a view matches counting a copy of its points
+    PointStore corners = store.select(new int[] {0, 2, 3, 4});
+    int[] cx = {3, 3, 7, 3};
+    int[] cy = {4, 6, 4, 11};
+    assertEquals(TrianglesUtils.countRightTriangles(cx, cy, 4, 0, 4, Kernel.HASH, null),
+        TrianglesUtils.countRightTriangles(corners, 0, 4));
+
+    // Closing a view leaves the parent open
+    slice.close();
+    assertEquals(3, store.getX(0));
+    store.close();
+  }
+
+  @Test
+  @DisplayName("append-only point log")
+  void testLog() throws Exception {
+    File dir = Files.createTempDirectory("pointlog").toFile();
+    File copy = Files.createTempDirectory("pointlog").toFile();
+    try {
+      // 4 points per segment, so 10 points span three segments
+      LogPointStore log = new LogPointStore(dir.getPath(), LogPointStore.SyncPolicy.MANUAL, 2);
+      assertEquals(0, log.numPoints());
+      log.append(new int[] {0, 1, 2, 3, 4, 5}, new int[] {0, -1, -2, -3, -4, -5}, 0, 6);
+      PointStore snapshot = log.snapshot();
+      log.append(6, -6);
+      log.sync();
+      log.append(new int[] {9, 7, 8, 9}, new int[] {9, -7, -8, -9}, 1, 3);
+      assertEquals(10, log.numPoints());
+      assertEquals(6, snapshot.numPoints());
+      assertEquals(5, snapshot.getX(5));
+      int[] xs = new int[10];
+      int[] ys = new int[10];
+      log.getPoints(0, 10, xs, ys, 0);
+      for (int k = 0; k < 10; k++) {
+        assertEquals(k, xs[k]);
+        assertEquals(-k, ys[k]);
+      }
+      assertThrows(IndexOutOfBoundsException.class, () -> log.getX(10));
+      assertThrows(IOException.class, () -> new LogPointStore(dir.getPath(), LogPointStore.SyncPolicy.MANUAL, 2));
+
+      // A copy taken now is what a crash would leave: only the synced 7 points are committed
+      for (File segment : dir.listFiles((d, name) -> name.endsWith(".seg"))) {
+        Files.copy(segment.toPath(), new File(copy, segment.getName()).toPath());
+      }
+      LogPointStore crashed = new LogPointStore(copy.getPath(), LogPointStore.SyncPolicy.EVERY_APPEND, 2);
+      assertEquals(7, crashed.numPoints());
+      assertEquals(-6, crashed.getY(6));
+      crashed.append(70, 70);
+      assertEquals(70, crashed.getX(7));
+      // Synced by the append itself: the segment header already commits it
+      try (RandomAccessFile raf = new RandomAccessFile(new File(copy, "points-000001.seg"), "r")) {
+        raf.seek(16);
+        assertEquals(4, Long.reverseBytes(raf.readLong()));
+      }
+      crashed.close();
+
+      // close syncs everything
+      log.close();
+      assertThrows(IllegalStateException.class, () -> log.getX(0));
+      LogPointStore reopened = new LogPointStore(dir.getPath(), LogPointStore.SyncPolicy.MANUAL, 2);
+      assertEquals(10, reopened.numPoints());
+      assertEquals(9, reopened.getX(9));
+
+      // Readers see a consistent prefix while points are appended
+      int total = 2000;
+      Thread writer = new Thread(() -> {
+        try {
+          for (int k = 10; k < total; k++) {
+            reopened.append(k, -k);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      writer.start();
+      while (reopened.numPoints() < total) {
+        PointStore prefix = reopened.snapshot();
+        int n = prefix.numPoints();
+        if (n > 0) {
+          assertEquals(n - 1, prefix.getX(n - 1));
+          assertEquals(1 - n, prefix.getY(n - 1));
+        }
+      }
+      writer.join();
+      assertEquals(total, reopened.numPoints());
+
+      // Closing while snapshot readers run: each read finishes or fails fast, never on unmapped memory
+      PointStore pinned = reopened.snapshot();
+      Thread[] readers = new Thread[4];
+      Throwable[] failures = new Throwable[readers.length];
+      for (int t = 0; t < readers.length; t++) {
+        int reader = t;
+        readers[t] = new Thread(() -> {
+          int[] pxs = new int[total];
+          int[] pys = new int[total];
+          try {
+            while (true) {
+              pinned.getPoints(0, total, pxs, pys, 0);
+              pinned.getX(total - 1 - reader);
+            }
+          } catch (Throwable e) {
+            failures[reader] = e;
+          }
+        });
+        readers[t].start();
+      }
+      Thread.sleep(2);
+      reopened.close();
+      for (int t = 0; t < readers.length; t++) {
+        readers[t].join();
+        assertTrue(failures[t] instanceof IllegalStateException, String.valueOf(failures[t]));
+      }
+    } finally {
+      for (File root : new File[] {dir, copy}) {
+        for (File file : root.listFiles()) {
+          file.delete();
+        }
+        root.delete();
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @DisplayName("synthetic point generator")
+  @CsvSource({"UNIFORM", "CLUSTERED", "GRID", "DUPLICATES", "NARROW"})
+  void testGenerate(GeneratePoints.Distribution distribution) throws IOException {
+    File one = File.createTempFile("generated", ".dat");
+    File three = File.createTempFile("generated", ".dat");
+    File text = File.createTempFile("generated", ".txt");
+    try {
+      // More than one block, so threads finish blocks out of order
+      int n = GeneratePoints.BLOCK_POINTS + 1000;
+      GeneratePoints.generate(one.getAbsolutePath(), n, distribution, 42, PointFormat.V2, 1);
+      GeneratePoints.generate(three.getAbsolutePath(), n, distribution, 42, PointFormat.V2, 3);
+      assertArrayEquals(Files.readAllBytes(one.toPath()), Files.readAllBytes(three.toPath()));
+
+      BinPointStore store = new BinPointStore(one.getAbsolutePath());
+      PointStats stats = store.getStats();
+      assertEquals(n, store.numPoints());
+      switch (distribution) {
+        case GRID:
+          // 1025 x 1025 grid, filled row by row
+          assertFalse(stats.hasDuplicates);
+          assertEquals(1024, stats.maxX);
+          assertEquals(1023, stats.maxY);
+          assertEquals(1, store.getX(1026));
+          assertEquals(1, store.getY(1026));
+          break;
+        case DUPLICATES:
+          int[] xs = new int[n];
+          int[] ys = new int[n];
+          store.getPoints(0, n, xs, ys, 0);
+          long[] keys = new long[n];
+          for (int k = 0; k < n; k++) {
+            keys[k] = (long)xs[k] << 32 | (ys[k] & 0xFFFFFFFFL);
+          }
+          assertTrue(Arrays.stream(keys).distinct().count() <= n / 100 + 1);
+          break;
+        case NARROW:
+          assertTrue(stats.minY >= 0 && stats.maxY < GeneratePoints.NARROW_HEIGHT);
+          break;
+        default:
+          assertTrue(stats.minX >= -2 * GeneratePoints.RANGE && stats.maxX <= 2 * GeneratePoints.RANGE);
+          break;
+      }
+      store.close();
+
+      // Another seed gives other points, in any format
+      GeneratePoints.generate(text.getAbsolutePath(), 100, distribution, 43, PointFormat.TEXT, 2);
+      TextPointStore small = new TextPointStore(text.getAbsolutePath());
+      assertEquals(100, small.numPoints());
+      if (distribution != GeneratePoints.Distribution.GRID) {
+        BinPointStore first = new BinPointStore(one.getAbsolutePath());
+        assertFalse(first.getX(0) == small.getX(0) && first.getY(0) == small.getY(0)
+            && first.getX(1) == small.getX(1) && first.getY(1) == small.getY(1));
+        first.close();
+      }
+    } finally {
+      one.delete();
+      three.delete();
+      text.delete();
+    }
+  }
 }
@@ -0,0 +1,135 @@
+package com.tryright;
+
+/**
+ * PointStoreView - zero-copy views of part of a PointStore (see PointStore.slice and select)
+ *
+ * Views hold no coordinates: every read goes to the parent store, mapped files
+ * and arrays alike, so a view costs a few fields (plus the caller's index array
+ * for a selection). Bulk reads stay bulk: a slice passes getPoints straight through,
+ * and a selection reads each run of consecutive indices with one getPoints call.
+ * Views report no stats, since a subset's bounds are unknown without a scan.
+ */
+abstract class PointStoreView implements PointStore {
+
+    final PointStore parent;
+
+    PointStoreView(PointStore parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public void close() {
+        // The parent owns the data; closing a view leaves it open
+    }
+
+    /**
+     * Slice - points [start, start + count) of the parent
+     */
+    static final class Slice extends PointStoreView {
+        private final int start;
+        private final int count;
+
+        Slice(PointStore parent, int start, int count) {
+            super(parent);
+            int numPoints = parent.numPoints();
+            if (start < 0 || count < 0 || start > numPoints - count) {
+                throw new IndexOutOfBoundsException("Range " + start + ".." + ((long)start + count)
+                    + " out of bounds for " + numPoints + " points");
+            }
+            this.start = start;
+            this.count = count;
+        }
+
+        @Override
+        public int getX(int idx) {
+            if (idx < 0 || idx >= count) {
+                throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " points");
+            }
+            return parent.getX(start + idx);
+        }
+
+        @Override
+        public int getY(int idx) {
+            if (idx < 0 || idx >= count) {
+                throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " points");
+            }
+            return parent.getY(start + idx);
+        }
+
+        @Override
+        public void getPoints(int startIdx, int n, int[] xs, int[] ys, int offset) {
+            PointStore.checkRange(startIdx, n, count, xs, ys, offset);
+            parent.getPoints(start + startIdx, n, xs, ys, offset);
+        }
+
+        // A slice of a slice is a slice of the parent, so chains do not stack up
+        @Override
+        public PointStore slice(int startIdx, int n) {
+            if (startIdx < 0 || n < 0 || startIdx > count - n) {
+                throw new IndexOutOfBoundsException("Range " + startIdx + ".." + ((long)startIdx + n)
+                    + " out of bounds for " + count + " points");
+            }
+            return new Slice(parent, start + startIdx, n);
+        }
+
+        @Override
+        public int numPoints() {
+            return count;
+        }
+    }
+
+    /**
+     * Selection - points indices[0], indices[1], ... of the parent
+     */
+    static final class Selection extends PointStoreView {
+        private final int[] indices;
+
+        Selection(PointStore parent, int[] indices) {
+            super(parent);
+            int numPoints = parent.numPoints();
+            for (int idx : indices) {
+                if (idx < 0 || idx >= numPoints) {
+                    throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+                }
+            }
+            this.indices = indices;
+        }
+
+        @Override
+        public int getX(int idx) {
+            return parent.getX(indices[idx]);
+        }
+
+        @Override
+        public int getY(int idx) {
+            return parent.getY(indices[idx]);
+        }
+
+        @Override
+        public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+            PointStore.checkRange(startIdx, count, indices.length, xs, ys, offset);
+            int k = startIdx;
+            int end = startIdx + count;
+            while (k < end) {
+                // Extend the run while indices are consecutive
+                int run = 1;
+                while (k + run < end && indices[k + run] == indices[k] + run) {
+                    run++;
+                }
+                if (run == 1) {
+                    xs[offset] = parent.getX(indices[k]);
+                    ys[offset] = parent.getY(indices[k]);
+                } else {
+                    parent.getPoints(indices[k], run, xs, ys, offset);
+                }
+                k += run;
+                offset += run;
+            }
+        }
+
+        @Override
+        public int numPoints() {
+            return indices.length;
+        }
+    }
+}
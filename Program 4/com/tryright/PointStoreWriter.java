@@ -0,0 +1,83 @@
+package com.tryright;
+
+import java.io.IOException;
+
+/**
+ * PointStoreWriter - writes points to a file in any format a PointStore can read
+ *
+ * Points are appended in batches and streamed to disk as they arrive; formats with
+ * a header (count, bounds, checksum) fill it in on close. Nothing is readable
+ * until close returns.
+ */
+public interface PointStoreWriter extends AutoCloseable {
+
+  /**
+   * Open a writer, replacing any existing file
+   *
+   * @param filename path of the file to write
+   * @param format file format
+   * @return writer for that format
+   * @throws IOException if the file cannot be created
+   */
+  static PointStoreWriter create(String filename, PointFormat format) throws IOException {
+    switch (format) {
+      case TEXT:
+        return new TextPointStore.Writer(filename);
+      case RAW:
+        return new BinPointStore.Writer(filename, false);
+      case V2:
+        return new BinPointStore.Writer(filename, true);
+      case COLUMNAR:
+        return new ColumnPointStore.Writer(filename);
+      default:
+        return new CompressedPointStore.Writer(filename, CompressedPointStore.Order.ROW,
+            CompressedPointStore.DEFAULT_BLOCK_POINTS);
+    }
+  }
+
+  /**
+   * Append points
+   *
+   * @param xs X values
+   * @param ys Y values
+   * @param offset index in xs and ys of the first point to write
+   * @param count number of points to write
+   * @throws IOException if writing fails
+   */
+  void write(int[] xs, int[] ys, int offset, int count) throws IOException;
+
+  /**
+   * Append one point
+   *
+   * @param x X value
+   * @param y Y value
+   * @throws IOException if writing fails
+   */
+  default void write(int x, int y) throws IOException {
+    write(new int[] {x}, new int[] {y}, 0, 1);
+  }
+
+  /**
+   * Declare that no point is written twice, so a header can say so.
+   * Formats without a duplicate flag ignore this; without it the flag is set.
+   *
+   * @param distinct true if the caller knows the points are distinct
+   */
+  default void setDistinct(boolean distinct) {
+  }
+
+  /**
+   * Get number of points written so far
+   *
+   * @return number of points
+   */
+  long numPoints();
+
+  /**
+   * Flush the points, fill in any header and close the file
+   *
+   * @throws IOException if writing fails
+   */
+  @Override
+  void close() throws IOException;
+}
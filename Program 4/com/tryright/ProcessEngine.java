@@ -0,0 +1,269 @@
+package com.tryright;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ProcessEngine - counts right triangles in child JVMs (SingleProcessTriangleCounter)
+ *
+ * Each child gets a file name and a range of corners over its stdin and answers with
+ * its count on stdout. Children stay alive between counts and keep the points of the
+ * last file they opened, so a second count of the same file starts no JVMs.
+ *
+ * Points that need parsing (text, gzip, compressed) are written as a columnar snapshot
+ * under /dev/shm (or the temp directory), which children map with no parsing. A file
+ * counted by name keeps its snapshot until another file is counted or the engine is
+ * closed, so counting it again, unchanged, parses nothing in either process. Stores and
+ * arrays have no file to key on, so they get a fresh snapshot per count, deleted after
+ * it, and the children reload it. Binary files are passed as they are.
+ * Children's stderr goes to this process's stderr. No per-worker stats are reported,
+ * since the workers run in other JVMs.
+ */
+public class ProcessEngine implements TriangleEngine {
+
+    // Points copied per batch when writing a snapshot
+    private static final int SNAPSHOT_BATCH = 1 << 20;
+
+    private final int processes;
+    private final List<Child> children = new ArrayList<>();
+
+    // Snapshot of the last file counted by name, the file it was made from and its point count
+    private File snapshot;
+    private String snapshotSource;
+    private int snapshotPoints;
+
+    // One child JVM and its pipes
+    private static class Child {
+        final Process process;
+        final PrintWriter in;
+        final BufferedReader out;
+
+        Child(Process process) {
+            this.process = process;
+            this.in = new PrintWriter(new OutputStreamWriter(process.getOutputStream()));
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        }
+    }
+
+    /**
+     * Constructor; children are started by the first count
+     * @param processes number of child processes
+     */
+    public ProcessEngine(int processes) {
+        if (processes <= 0) {
+            throw new IllegalArgumentException("Number of processes must be positive");
+        }
+        this.processes = processes;
+    }
+
+    @Override
+    public synchronized TriangleResult count(int[] xCoords, int[] yCoords, int n, PointStats stats)
+            throws IOException {
+        long start = System.nanoTime();
+        File points = createSnapshotFile();
+        try {
+            try (ColumnPointStore.Writer writer = new ColumnPointStore.Writer(points.getPath(), false)) {
+                writer.setDistinct(stats != null && !stats.hasDuplicates);
+                writer.write(xCoords, yCoords, 0, n);
+            }
+            return countFile(points.getPath(), n, start);
+        } finally {
+            points.delete();
+        }
+    }
+
+    /**
+     * Count right triangles in a store through a snapshot; the store is left open
+     * @param store points to count
+     * @return count, timings (loading is writing the snapshot) and no worker stats
+     */
+    @Override
+    public synchronized TriangleResult count(PointStore store) throws IOException {
+        long start = System.nanoTime();
+        File points = writeSnapshot(store);
+        try {
+            return countFile(points.getPath(), store.numPoints(), start);
+        } finally {
+            points.delete();
+        }
+    }
+
+    /**
+     * Count right triangles in a point file, passing binary files to the children as they
+     * are and snapshotting anything else (falls back to the file itself if that fails).
+     * The snapshot is reused while the file keeps its path, size and modification time.
+     * @param filename file in any format PointStoreRegistry detects
+     * @return count, timings and no worker stats
+     */
+    public synchronized TriangleResult count(String filename) throws IOException {
+        long start = System.nanoTime();
+        File source = new File(filename);
+        String key = source.getAbsolutePath() + ":" + source.length() + ":" + source.lastModified();
+        if (snapshot != null && key.equals(snapshotSource) && snapshot.isFile()) {
+            return countFile(snapshot.getPath(), snapshotPoints, start);
+        }
+        deleteSnapshot();
+
+        PointStore store = TrianglesUtils.createPointStore(filename);
+        try {
+            if (needsSnapshot(store)) {
+                try {
+                    snapshot = writeSnapshot(store);
+                    snapshotSource = key;
+                    snapshotPoints = store.numPoints();
+                } catch (IOException e) {
+                    // Children can still parse the input themselves
+                }
+            }
+            return countFile(snapshot != null ? snapshot.getPath() : filename, store.numPoints(), start);
+        } finally {
+            store.close();
+        }
+    }
+
+    private void deleteSnapshot() {
+        if (snapshot != null) {
+            snapshot.delete();
+            snapshot = null;
+            snapshotSource = null;
+        }
+    }
+
+    // Binary files are mapped by children without parsing; everything else is worth a snapshot
+    static boolean needsSnapshot(PointStore store) {
+        return !(store instanceof BinPointStore || store instanceof ColumnPointStore);
+    }
+
+    private static File createSnapshotFile() throws IOException {
+        File dir = new File("/dev/shm");
+        if (!dir.isDirectory() || !dir.canWrite()) {
+            dir = null; // java.io.tmpdir
+        }
+        File snapshot = File.createTempFile("points", ".dat", dir);
+        snapshot.deleteOnExit();
+        return snapshot;
+    }
+
+    /**
+     * Write the points as a columnar version 2 file in shared memory, so each child
+     * maps it instead of parsing the input again
+     * @param store parsed points
+     * @return snapshot file, to be deleted by the caller
+     */
+    static File writeSnapshot(PointStore store) throws IOException {
+        File snapshot = createSnapshotFile();
+        try {
+            int numPoints = store.numPoints();
+            int batch = Math.min(SNAPSHOT_BATCH, numPoints);
+            int[] xs = new int[batch];
+            int[] ys = new int[batch];
+            // No checksum: the file lives only as long as this count
+            try (ColumnPointStore.Writer writer = new ColumnPointStore.Writer(snapshot.getPath(), false)) {
+                PointStats stats = store.getStats();
+                writer.setDistinct(stats != null && !stats.hasDuplicates);
+                for (int start = 0; start < numPoints; start += batch) {
+                    int count = Math.min(batch, numPoints - start);
+                    store.getPoints(start, count, xs, ys, 0);
+                    writer.write(xs, ys, 0, count);
+                }
+            }
+            return snapshot;
+        } catch (IOException e) {
+            snapshot.delete();
+            throw e;
+        }
+    }
+
+    // Split the corners of a file among the children and sum their counts
+    private TriangleResult countFile(String filename, int numPoints, long start) throws IOException {
+        long loadNanos = System.nanoTime() - start;
+        long countStart = System.nanoTime();
+        if (numPoints < 3) {
+            return new TriangleResult(0, numPoints, loadNanos, System.nanoTime() - countStart, new WorkerStats[0]);
+        }
+
+        int workers = Math.min(processes, numPoints);
+        int pointsPerProcess = (numPoints + workers - 1) / workers;
+        int total = 0;
+        try {
+            while (children.size() < workers) {
+                children.add(startChild());
+            }
+            for (int i = 0; i < workers; i++) {
+                int startIdx = Math.min(i * pointsPerProcess, numPoints);
+                int endIdx = Math.min(startIdx + pointsPerProcess, numPoints);
+                PrintWriter in = children.get(i).in;
+                in.println(filename);
+                in.println(startIdx);
+                in.println(endIdx);
+                in.flush();
+            }
+            for (int i = 0; i < workers; i++) {
+                String result = children.get(i).out.readLine();
+                if (result == null) {
+                    throw new IOException("Child process exited without a result");
+                }
+                try {
+                    total += Integer.parseInt(result.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid result from child process");
+                }
+            }
+        } catch (IOException e) {
+            // The children's state is unknown now; start fresh ones next time
+            destroyChildren();
+            throw e;
+        }
+        return new TriangleResult(total, numPoints, loadNanos, System.nanoTime() - countStart, new WorkerStats[0]);
+    }
+
+    private static Child startChild() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", childClassPath(),
+            SingleProcessTriangleCounter.class.getName());
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            return new Child(pb.start());
+        } catch (IOException e) {
+            throw new IOException("Failed to start child process: " + e.getMessage());
+        }
+    }
+
+    // Where this class was loaded from, which also works when embedded under another
+    // class loader; the JVM's own class path if that is unknown
+    private static String childClassPath() {
+        try {
+            return new File(ProcessEngine.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getPath();
+        } catch (RuntimeException | java.net.URISyntaxException e) {
+            return System.getProperty("java.class.path");
+        }
+    }
+
+    private void destroyChildren() {
+        for (Child child : children) {
+            child.process.destroy();
+        }
+        children.clear();
+    }
+
+    /**
+     * Close the children's stdin so they exit, wait for them, and delete the kept snapshot
+     */
+    @Override
+    public synchronized void close() {
+        for (Child child : children) {
+            child.in.close();
+        }
+        try {
+            for (Child child : children) {
+                child.process.waitFor();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        destroyChildren();
+        deleteSnapshot();
+    }
+}
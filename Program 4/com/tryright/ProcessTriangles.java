@@ -1,8 +1,7 @@
 package com.tryright;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * ProcessTriangles - counts right triangles using multiple processes
@@ -10,8 +9,12 @@ import java.util.List;
  *
  * Usage: java com.tryright.ProcessTriangles <input_file> <num_processes>
  *
- * Splits the work among multiple processes to use all CPU cores.
+ * Splits the work among multiple processes to use all CPU cores, through ProcessEngine.
  * Each process handles a subset and reports its count back.
+ *
+ * Inputs that need parsing (text, gzip, compressed) are parsed once here and written
+ * as a columnar snapshot under /dev/shm (or the temp directory); children get its path
+ * over the pipe and map it with no parsing. The snapshot is deleted when the job ends.
  */
 public class ProcessTriangles {
 
@@ -56,32 +59,22 @@ public class ProcessTriangles {
             System.exit(2);
         }
 
-        PointStore store = null;
         try {
-            // Create PointStore to get number of points
-            store = TrianglesUtils.createPointStore(filename);
-            int numPoints = store.numPoints();
-
-            // Use single process if we have too few points
-            if (numPoints < 3 || numProcesses == 1) {
-                int count = TrianglesUtils.countRightTriangles(store, 0, numPoints);
-                System.out.println(count);
-                return;
-            }
-
-            // Limit processes to dataset size (no point having more processes than points)
-            int actualProcesses = Math.min(numProcesses, numPoints);
-
-            // Use single process if dataset is very small
-            if (actualProcesses <= 1 || numPoints < 4) {
-                int count = TrianglesUtils.countRightTriangles(store, 0, numPoints);
-                System.out.println(count);
-                return;
+            // A single process counts here; otherwise children split the corners
+            TriangleResult result;
+            if (numProcesses == 1) {
+                PointStore store = TrianglesUtils.createPointStore(filename);
+                try {
+                    result = new SequentialEngine().count(store);
+                } finally {
+                    store.close();
+                }
+            } else {
+                try (ProcessEngine engine = new ProcessEngine(numProcesses)) {
+                    result = engine.count(filename);
+                }
             }
-
-            // Distribute work among processes
-            int totalCount = countWithMultipleProcesses(filename, numPoints, actualProcesses);
-            System.out.println(totalCount);
+            System.out.println(result.count);
 
         } catch (IOException e) {
             if (e.getMessage() != null && e.getMessage().contains("Permission denied")) {
@@ -90,101 +83,6 @@ public class ProcessTriangles {
                 System.err.println("Error: " + e.getMessage());
             }
             System.exit(2);
-        } finally {
-            if (store != null) {
-                store.close();
-            }
         }
     }
-
-    /**
-     * Count right triangles using multiple processes.
-     * Each process checks a subset of the points as right-angle corners.
-     * Uses pipes (stdin/stdout) for communication between processes.
-     */
-    private static int countWithMultipleProcesses(String filename, int numPoints, int numProcesses)
-            throws IOException {
-
-        int totalCount = 0;
-        List<Process> processes = new ArrayList<>();
-        List<BufferedReader> readers = new ArrayList<>();
-
-        // Split work evenly among processes
-        int pointsPerProcess = (numPoints + numProcesses - 1) / numProcesses;
-
-        // Start child processes
-        for (int processIndex = 0; processIndex < numProcesses; processIndex++) {
-            int startIdx = processIndex * pointsPerProcess;
-            int endIdx = Math.min((processIndex + 1) * pointsPerProcess, numPoints);
-
-            // Skip if no work for this process
-            if (startIdx >= numPoints) {
-                break;
-            }
-
-            try {
-                // Start child process
-                ProcessBuilder pb = new ProcessBuilder(
-                    "java", "-cp", ".", "com.tryright.SingleProcessTriangleCounter"
-                );
-
-                Process process = pb.start();
-                processes.add(process);
-
-                // Send parameters to child via stdin (filename, startIdx, endIdx)
-                try (PrintWriter writer = new PrintWriter(process.getOutputStream())) {
-                    writer.println(filename);
-                    writer.println(startIdx);
-                    writer.println(endIdx);
-                    writer.flush();
-                }
-
-                // Read result from child via stdout
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream())
-                );
-                readers.add(reader);
-
-            } catch (IOException e) {
-                System.err.println("Error: Failed to start child process");
-                for (Process p : processes) {
-                    p.destroy();
-                }
-                throw e;
-            }
-        }
-
-        // Collect results from all child processes
-        for (int i = 0; i < processes.size(); i++) {
-            try {
-                BufferedReader reader = readers.get(i);
-                String result = reader.readLine();
-
-                if (result != null) {
-                    try {
-                        int count = Integer.parseInt(result.trim());
-                        totalCount += count;
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error: Invalid result from child process");
-                        for (Process p : processes) {
-                            p.destroy();
-                        }
-                        System.exit(1);
-                    }
-                }
-
-                int exitCode = processes.get(i).waitFor();
-                if (exitCode != 0) {
-                    System.err.println("Warning: Child process exited with code " + exitCode);
-                }
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.err.println("Error: Interrupted waiting for child process");
-                System.exit(1);
-            }
-        }
-
-        return totalCount;
-    }
 }
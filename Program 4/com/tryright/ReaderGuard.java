@@ -0,0 +1,60 @@
+package com.tryright;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReaderGuard - lets close() wait for reads in flight before unmapping
+ *
+ * Each read of a mapping is bracketed by enter() and exit(). close() marks the guard
+ * closed, so later reads throw IllegalStateException, then waits until every read that
+ * had already entered has left. Only after that may the owner unmap, so a read racing
+ * close on another thread either finishes on live memory or fails fast; it never
+ * touches an unmapped page.
+ *
+ * The state is one int: bit 0 is the closed flag, the rest counts readers in steps of 2.
+ */
+final class ReaderGuard {
+
+    private static final int CLOSED = 1;
+    private static final int READER = 2;
+
+    private final AtomicInteger state = new AtomicInteger();
+
+    /**
+     * Start a read
+     * @throws IllegalStateException if the guard is closed; exit() must not be called then
+     */
+    void enter() {
+        if ((state.getAndAdd(READER) & CLOSED) != 0) {
+            state.getAndAdd(-READER);
+            throw new IllegalStateException("PointStore is closed");
+        }
+    }
+
+    /**
+     * End a read started by a successful enter()
+     */
+    void exit() {
+        state.getAndAdd(-READER);
+    }
+
+    /**
+     * Check whether close() has been called
+     * @return true once closed
+     */
+    boolean isClosed() {
+        return (state.get() & CLOSED) != 0;
+    }
+
+    /**
+     * Refuse new reads and wait for the ones in flight; must not be called from inside a read
+     * @return true if this call closed the guard, false if it was already closed
+     */
+    boolean close() {
+        int previous = state.getAndUpdate(s -> s | CLOSED);
+        while (state.get() != CLOSED) {
+            Thread.yield();
+        }
+        return (previous & CLOSED) == 0;
+    }
+}
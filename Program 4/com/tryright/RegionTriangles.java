@@ -0,0 +1,172 @@
+package com.tryright;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RegionTriangles - counts right triangles inside rectangular regions
+ * Loads the points once into a GridIndex and answers every query against it
+ *
+ * Usage: java com.tryright.RegionTriangles <input_file> <query_file> <num_threads>
+ *
+ * Query file: one region per line, "x1 y1 x2 y2" (inclusive corners).
+ * Prints one count per query, in query order.
+ *
+ * The index is immutable, so worker threads share it without locking.
+ * Each thread pulls the next query number from a shared counter and writes
+ * its answer to its own slot in the results array.
+ */
+public class RegionTriangles {
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java com.tryright.RegionTriangles <input_file> <query_file> <num_threads>");
+            System.exit(1);
+        }
+
+        String filename = args[0];
+        String queryFilename = args[1];
+        int numThreads;
+
+        try {
+            numThreads = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Number of threads must be an integer");
+            System.exit(1);
+            return;
+        }
+
+        if (numThreads <= 0) {
+            System.err.println("Error: Number of threads must be positive");
+            System.exit(1);
+        }
+
+        if (numThreads > 256) {
+            System.err.println("Error: Number of threads cannot exceed 256");
+            System.exit(1);
+        }
+
+        for (String name : new String[] {filename, queryFilename}) {
+            File inputFile = new File(name);
+            if (!inputFile.exists()) {
+                System.err.println("Error: No such file or directory");
+                System.exit(2);
+            }
+            if (!inputFile.canRead()) {
+                System.err.println("Error: Permission denied");
+                System.exit(2);
+            }
+        }
+
+        PointStore store = null;
+        try {
+            store = TrianglesUtils.createPointStore(filename);
+            GridIndex index = new GridIndex(store);
+            List<int[]> queries = readQueries(queryFilename);
+
+            int[] results = countRegions(index, queries, numThreads);
+            for (int count : results) {
+                System.out.println(count);
+            }
+
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.err.println("Error: Thread interrupted");
+            System.exit(1);
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    /**
+     * Answer many region queries in parallel against one shared index
+     * @param index GridIndex built from the points
+     * @param queries regions as {x1, y1, x2, y2}
+     * @param numThreads number of worker threads
+     * @return count for each query, in query order
+     * @throws InterruptedException if interrupted waiting for workers
+     * @throws IllegalStateException if a worker fails; the first failure is the cause
+     */
+    public static int[] countRegions(GridIndex index, List<int[]> queries, int numThreads)
+            throws InterruptedException {
+        int[] results = new int[queries.size()];
+        AtomicInteger nextQuery = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // Queries vary a lot in size, so hand them out one at a time instead of in fixed ranges
+        Thread[] workers = new Thread[Math.max(1, Math.min(numThreads, queries.size()))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    int q;
+                    while ((q = nextQuery.getAndIncrement()) < results.length) {
+                        int[] region = queries.get(q);
+                        results[q] = index.countInRegion(region[0], region[1], region[2], region[3]);
+                    }
+                } catch (RuntimeException | Error e) {
+                    // Keep the first failure and stop handing out queries, so no count is left at 0 unnoticed
+                    failure.compareAndSet(null, e);
+                    nextQuery.set(results.length);
+                }
+            }, "Query-" + i);
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException("Error counting triangles: " + cause, cause);
+        }
+        return results;
+    }
+
+    /**
+     * Read region queries, one "x1 y1 x2 y2" per line; blank lines are skipped
+     * @param filename path to query file
+     * @return regions as {x1, y1, x2, y2}
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    static List<int[]> readQueries(String filename) throws IOException {
+        List<int[]> queries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 4) {
+                    throw new IOException("Invalid query format: expected 'x1 y1 x2 y2'");
+                }
+
+                try {
+                    int[] region = new int[4];
+                    for (int k = 0; k < 4; k++) {
+                        region[k] = Integer.parseInt(parts[k]);
+                    }
+                    queries.add(region);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid query coordinates");
+                }
+            }
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tryright;
+
+/**
+ * SequentialEngine - counts right triangles on the calling thread
+ */
+public class SequentialEngine implements TriangleEngine {
+
+    private final Kernel kernel;
+    private final KernelDiagnostics diagnostics;
+
+    /**
+     * Constructor with the AUTO kernel
+     */
+    public SequentialEngine() {
+        this(Kernel.AUTO);
+    }
+
+    /**
+     * Constructor
+     * @param kernel counting algorithm (DICTIONARY uses a fresh dictionary per count)
+     */
+    public SequentialEngine(Kernel kernel) {
+        this.kernel = kernel;
+        this.diagnostics = null;
+    }
+
+    /**
+     * Constructor that samples direction tables into diagnostics (forces the HASH kernel)
+     * @param diagnostics where to record sampled tables
+     */
+    public SequentialEngine(KernelDiagnostics diagnostics) {
+        this.kernel = Kernel.HASH;
+        this.diagnostics = diagnostics;
+    }
+
+    @Override
+    public TriangleResult count(int[] xCoords, int[] yCoords, int n, PointStats stats) {
+        WorkerStats worker = new WorkerStats("main", n);
+        long start = System.nanoTime();
+        worker.start();
+        int count = TrianglesUtils.countRightTriangles(xCoords, yCoords, n, 0, n, kernel, diagnostics, stats);
+        worker.stop();
+        return new TriangleResult(count, n, 0, System.nanoTime() - start, new WorkerStats[] {worker});
+    }
+
+    @Override
+    public void close() {
+        // No threads to release
+    }
+}
@@ -1,6 +1,7 @@
 package com.tryright;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -8,76 +9,102 @@ import java.io.InputStreamReader;
  * SingleProcessTriangleCounter - child process that counts triangles
  * Uses PointStore interface to support both text and binary formats
  *
- * Started by ProcessTriangles. Reads filename and work assignment from stdin,
+ * Started by ProcessEngine. Reads filename and work assignment from stdin,
  * counts right triangles using PointStore, and outputs the count to stdout.
+ * The filename is usually the parent's columnar snapshot, which opens as a
+ * read-only mapping with nothing to parse.
+ *
+ * Assignments are read until stdin is closed, one count line per assignment, so the
+ * parent can keep the process for later counts. Points are copied out and the store is
+ * closed right away, so a snapshot the parent deletes is not held open; the copy is
+ * kept while the assignments name the same file with the same size and modification time.
  */
 public class SingleProcessTriangleCounter {
 
     public static void main(String[] args) {
-        PointStore store = null;
+        String loadedFile = null;
+        long loadedModified = 0;
+        long loadedSize = -1;
+        int numPoints = 0;
+        int[] xCoords = null;
+        int[] yCoords = null;
+        PointStats stats = null;
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
-            // Read filename
-            String filename = reader.readLine();
-            if (filename == null) {
-                System.err.println("Error: Missing filename");
-                System.exit(1);
-            }
-            filename = filename.trim();
+            // Read filename; end of input means the parent is done with this process
+            String filename;
+            while ((filename = reader.readLine()) != null) {
+                filename = filename.trim();
 
-            // Read start index
-            String line = reader.readLine();
-            if (line == null) {
-                System.err.println("Error: Missing start index");
-                System.exit(1);
-            }
-            int startIdx;
-            try {
-                startIdx = Integer.parseInt(line.trim());
-            } catch (NumberFormatException e) {
-                System.err.println("Error: Start index must be an integer");
-                System.exit(1);
-                return;
-            }
+                // Read start index
+                String line = reader.readLine();
+                if (line == null) {
+                    System.err.println("Error: Missing start index");
+                    System.exit(1);
+                }
+                int startIdx;
+                try {
+                    startIdx = Integer.parseInt(line.trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: Start index must be an integer");
+                    System.exit(1);
+                    return;
+                }
 
-            // Read end index
-            line = reader.readLine();
-            if (line == null) {
-                System.err.println("Error: Missing end index");
-                System.exit(1);
-            }
-            int endIdx;
-            try {
-                endIdx = Integer.parseInt(line.trim());
-            } catch (NumberFormatException e) {
-                System.err.println("Error: End index must be an integer");
-                System.exit(1);
-                return;
-            }
+                // Read end index
+                line = reader.readLine();
+                if (line == null) {
+                    System.err.println("Error: Missing end index");
+                    System.exit(1);
+                }
+                int endIdx;
+                try {
+                    endIdx = Integer.parseInt(line.trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: End index must be an integer");
+                    System.exit(1);
+                    return;
+                }
 
-            if (startIdx < 0 || endIdx < startIdx) {
-                System.err.println("Error: Invalid indices: startIdx=" + startIdx + ", endIdx=" + endIdx);
-                System.exit(1);
-            }
+                if (startIdx < 0 || endIdx < startIdx) {
+                    System.err.println("Error: Invalid indices: startIdx=" + startIdx + ", endIdx=" + endIdx);
+                    System.exit(1);
+                }
 
-            // Create PointStore from filename
-            store = TrianglesUtils.createPointStore(filename);
+                // Load points from filename, unless the last assignment loaded the same file
+                File file = new File(filename);
+                long modified = file.lastModified();
+                long size = file.length();
+                if (!filename.equals(loadedFile) || modified != loadedModified || size != loadedSize) {
+                    loadedFile = null;
+                    PointStore store = TrianglesUtils.createPointStore(filename);
+                    try {
+                        numPoints = store.numPoints();
+                        xCoords = new int[numPoints];
+                        yCoords = new int[numPoints];
+                        store.getPoints(0, numPoints, xCoords, yCoords, 0);
+                        stats = store.getStats();
+                    } finally {
+                        store.close();
+                    }
+                    loadedFile = filename;
+                    loadedModified = modified;
+                    loadedSize = size;
+                }
 
-            // Count triangles in this range
-            int count = TrianglesUtils.countRightTriangles(store, startIdx, endIdx);
+                // Count triangles in this range
+                int count = TrianglesUtils.countRightTriangles(xCoords, yCoords, numPoints, startIdx, endIdx,
+                    Kernel.AUTO, null, stats);
 
-            // Send result back to parent
-            System.out.println(count);
-            System.out.flush();
+                // Send result back to parent
+                System.out.println(count);
+                System.out.flush();
+            }
 
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
             System.exit(1);
-        } finally {
-            if (store != null) {
-                store.close();
-            }
         }
     }
 }
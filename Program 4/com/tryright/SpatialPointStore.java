@@ -0,0 +1,340 @@
+package com.tryright;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * SpatialPointStore - a PointStore decorator that orders points along a space-filling curve
+ *
+ * Points are loaded from the source once and sorted by their Morton or Hilbert code,
+ * so points that are close in the plane are close in the arrays too. Tiled and region
+ * counting then walk contiguous neighborhoods. The permutation is kept so per-vertex
+ * results can be reported against the source's indices (originalIndex).
+ *
+ * Codes are computed from offsets to (minX, minY) and sorted with a parallel LSD radix
+ * sort that skips digits every code shares, so small boxes take few passes. Equal
+ * codes are equal points, so the sort also tells getStats whether there are duplicates.
+ */
+public class SpatialPointStore implements PointStore {
+
+    /**
+     * Space-filling curve to order points along
+     */
+    public enum Curve {
+        /** Z-order: interleaved bits, cheap to compute, with jumps between quadrants */
+        MORTON,
+        /** Hilbert order: consecutive cells are always neighbors */
+        HILBERT
+    }
+
+    // 11-bit digits: 2048 counters per chunk fit in L1, and 6 passes cover 64 bits
+    private static final int RADIX_BITS = 11;
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    // Below this many points one thread sorts faster than a pool can start
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final PointStore source;
+    private final Curve curve;
+    private final int[] xCoords;
+    private final int[] yCoords;
+    private final int[] order; // order[k] = source index of point k
+    private final PointStats stats;
+
+    /**
+     * Constructor - sorts on all available cores
+     * @param source points to reorder (closed when this store is)
+     * @param curve curve to order points along
+     */
+    public SpatialPointStore(PointStore source, Curve curve) {
+        this(source, curve, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param source points to reorder (closed when this store is)
+     * @param curve curve to order points along
+     * @param parallelism number of sorting threads; 1 sorts on the calling thread
+     */
+    public SpatialPointStore(PointStore source, Curve curve, int parallelism) {
+        this.source = source;
+        this.curve = curve;
+        int n = source.numPoints();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        source.getPoints(0, n, xs, ys, 0);
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            minX = Math.min(minX, xs[k]);
+            maxX = Math.max(maxX, xs[k]);
+            minY = Math.min(minY, ys[k]);
+            maxY = Math.max(maxY, ys[k]);
+        }
+
+        // Bits needed for the larger side of the bounding box
+        long span = Math.max((long)maxX - minX, (long)maxY - minY);
+        int bits = n == 0 ? 0 : 64 - Long.numberOfLeadingZeros(span);
+
+        long[] keys = new long[n];
+        order = new int[n];
+        for (int k = 0; k < n; k++) {
+            long dx = (long)xs[k] - minX;
+            long dy = (long)ys[k] - minY;
+            keys[k] = curve == Curve.MORTON ? CompressedPointStore.mortonCode(dx, dy) : hilbertCode(dx, dy, bits);
+            order[k] = k;
+        }
+        radixSort(keys, order, n < PARALLEL_THRESHOLD ? 1 : parallelism);
+
+        xCoords = new int[n];
+        yCoords = new int[n];
+        boolean hasDuplicates = false;
+        for (int k = 0; k < n; k++) {
+            xCoords[k] = xs[order[k]];
+            yCoords[k] = ys[order[k]];
+            hasDuplicates |= k > 0 && keys[k] == keys[k - 1];
+        }
+        stats = new PointStats(n, minX, maxX, minY, maxY, hasDuplicates);
+    }
+
+    /**
+     * Hilbert index of a cell in a 2^bits x 2^bits grid
+     * @param x unsigned column, below 2^bits
+     * @param y unsigned row, below 2^bits
+     * @param bits grid order, at most 32 (rounded up to a multiple of 4)
+     * @return position along the curve, unsigned
+     */
+    static long hilbertCode(long x, long y, int bits) {
+        int state = 0;
+        long d = 0;
+        for (int shift = (bits + HILBERT_BITS - 1) / HILBERT_BITS * HILBERT_BITS - HILBERT_BITS; shift >= 0;
+             shift -= HILBERT_BITS) {
+            int entry = HILBERT_TABLE[state << 2 * HILBERT_BITS
+                | (int)(x >>> shift & HILBERT_MASK) << HILBERT_BITS | (int)(y >>> shift & HILBERT_MASK)];
+            d = d << 2 * HILBERT_BITS | (entry & 0xFF);
+            state = entry >>> 2 * HILBERT_BITS;
+        }
+        return d;
+    }
+
+    // Hilbert codes are built 4 levels at a time from a table, since a branch per level
+    // mispredicts half the time on scattered points
+    private static final int HILBERT_BITS = 4;
+    private static final int HILBERT_MASK = (1 << HILBERT_BITS) - 1;
+    private static final short[] HILBERT_TABLE = hilbertTable();
+
+    // Entry [state, 4 bits of x, 4 bits of y] -> 8 bits of code | next state << 8. The state is
+    // how the current quadrant is turned: bit 0 swaps x and y, bit 1 complements both.
+    private static short[] hilbertTable() {
+        short[] table = new short[4 << 2 * HILBERT_BITS];
+        for (int state = 0; state < 4; state++) {
+            for (int xBits = 0; xBits <= HILBERT_MASK; xBits++) {
+                for (int yBits = 0; yBits <= HILBERT_MASK; yBits++) {
+                    int swap = state & 1;
+                    int invert = state >> 1;
+                    int digits = 0;
+                    for (int level = HILBERT_BITS - 1; level >= 0; level--) {
+                        int bx = xBits >> level & 1;
+                        int by = yBits >> level & 1;
+                        int rx = (swap == 1 ? by : bx) ^ invert;
+                        int ry = (swap == 1 ? bx : by) ^ invert;
+                        digits = digits << 2 | ((3 * rx) ^ ry);
+                        if (ry == 0) {
+                            invert ^= rx;
+                            swap ^= 1;
+                        }
+                    }
+                    table[state << 2 * HILBERT_BITS | xBits << HILBERT_BITS | yBits] =
+                        (short)(digits | (swap | invert << 1) << 2 * HILBERT_BITS);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sort unsigned keys, carrying values along, with a stable LSD radix sort.
+     * Each pass histograms chunks in parallel, turns the counts into per-chunk
+     * offsets, then scatters the chunks in parallel; digits that no key varies in are skipped.
+     * @param keys keys to sort (sorted in place)
+     * @param values values to permute with the keys (same length)
+     * @param parallelism number of chunks and threads
+     */
+    static void radixSort(long[] keys, int[] values, int parallelism) {
+        int n = keys.length;
+        long varying = 0;
+        for (int k = 1; k < n; k++) {
+            varying |= keys[k] ^ keys[0];
+        }
+        if (varying == 0) {
+            return;
+        }
+
+        int chunks = Math.max(1, Math.min(parallelism, n / RADIX));
+        int[] bounds = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++) {
+            bounds[c] = (int)((long)n * c / chunks);
+        }
+
+        long[] fromKeys = keys, toKeys = new long[n];
+        int[] fromValues = values, toValues = new int[n];
+        int[][] offsets = new int[chunks][RADIX];
+        ForkJoinPool pool = chunks > 1 ? new ForkJoinPool(chunks) : null;
+        try {
+            for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+                if ((varying >>> shift & (RADIX - 1)) == 0) {
+                    continue;
+                }
+                int digitShift = shift;
+                long[] passKeys = fromKeys, passToKeys = toKeys;
+                int[] passValues = fromValues, passToValues = toValues;
+
+                runChunks(pool, chunks, c -> {
+                    int[] count = offsets[c];
+                    Arrays.fill(count, 0);
+                    for (int k = bounds[c]; k < bounds[c + 1]; k++) {
+                        count[(int)(passKeys[k] >>> digitShift) & (RADIX - 1)]++;
+                    }
+                });
+
+                // Digit-major, chunk-minor offsets keep the sort stable
+                int position = 0;
+                for (int d = 0; d < RADIX; d++) {
+                    for (int c = 0; c < chunks; c++) {
+                        int count = offsets[c][d];
+                        offsets[c][d] = position;
+                        position += count;
+                    }
+                }
+
+                runChunks(pool, chunks, c -> {
+                    int[] next = offsets[c];
+                    for (int k = bounds[c]; k < bounds[c + 1]; k++) {
+                        int at = next[(int)(passKeys[k] >>> digitShift) & (RADIX - 1)]++;
+                        passToKeys[at] = passKeys[k];
+                        passToValues[at] = passValues[k];
+                    }
+                });
+
+                toKeys = fromKeys;
+                fromKeys = passToKeys;
+                toValues = fromValues;
+                fromValues = passToValues;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, n);
+            System.arraycopy(fromValues, 0, values, 0, n);
+        }
+    }
+
+    private interface ChunkTask {
+        void run(int chunk);
+    }
+
+    // Run task on every chunk, on the pool if there is one
+    private static void runChunks(ForkJoinPool pool, int chunks, ChunkTask task) {
+        if (pool == null) {
+            for (int c = 0; c < chunks; c++) {
+                task.run(c);
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            int chunk = c;
+            tasks.add(() -> {
+                task.run(chunk);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> done : pool.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sorting points");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error sorting points: " + e.getCause());
+        }
+    }
+
+    /**
+     * Get the index a point had in the source store
+     * @param idx index in this store
+     * @return index in the source
+     */
+    public int originalIndex(int idx) {
+        return order[idx];
+    }
+
+    /**
+     * Get the whole permutation, for mapping per-vertex results back to source indices
+     * @return copy of the array whose element k is the source index of point k
+     */
+    public int[] getPermutation() {
+        return order.clone();
+    }
+
+    /**
+     * Get the curve the points are ordered along
+     * @return curve
+     */
+    public Curve getCurve() {
+        return curve;
+    }
+
+    /**
+     * Count and bounds of the points, with duplicates found exactly by the sort
+     * @return stats of the points
+     */
+    @Override
+    public PointStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public int getX(int idx) {
+        if (idx < 0 || idx >= xCoords.length) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + xCoords.length + " points");
+        }
+        return xCoords[idx];
+    }
+
+    @Override
+    public int getY(int idx) {
+        if (idx < 0 || idx >= yCoords.length) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + yCoords.length + " points");
+        }
+        return yCoords[idx];
+    }
+
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        PointStore.checkRange(startIdx, count, xCoords.length, xs, ys, offset);
+        System.arraycopy(xCoords, startIdx, xs, offset, count);
+        System.arraycopy(yCoords, startIdx, ys, offset, count);
+    }
+
+    @Override
+    public int numPoints() {
+        return xCoords.length;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
@@ -1,82 +1,660 @@
 package com.tryright;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * TextPointStore - reads points from text-encoded files
  * Format: First line contains count, followed by "x y" pairs
+ *
+ * Parses the raw bytes in large blocks straight into int arrays, with no
+ * per-line String or per-point boxing. Accepts and rejects the same input as
+ * BufferedReader.readLine + trim + split("\\s+") + Integer.parseInt, with the
+ * same error messages (coordinates must be ASCII digits).
+ *
+ * Large files are split into newline-aligned chunks parsed on a ForkJoinPool.
  */
 public class TextPointStore implements PointStore {
-    
+
+    // Read the file in blocks of this many bytes
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    // Shortest possible point line is "0 0", so a file of b bytes holds at most b / 3 + 1 points
+    private static final int MIN_POINT_BYTES = 3;
+
+    // Returned by parseInt for text that Integer.parseInt would reject
+    private static final long INVALID = Long.MIN_VALUE;
+
+    // Files at least this big are parsed in parallel chunks by default
+    static final long PARALLEL_THRESHOLD = 32L << 20;
+
+    // Aim for a few chunks per worker so a slow chunk does not hold up the rest
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    // Initial array size when parsing a stream of unknown length
+    private static final int STREAM_CAPACITY = 1 << 16;
+
     private final int[] xCoords;
     private final int[] yCoords;
     private final int numPoints;
-    
+
     /**
      * Constructor - reads and parses text file
+     * Files of PARALLEL_THRESHOLD bytes or more are parsed on all available cores.
      * @param filename path to text-encoded file
      */
     public TextPointStore(String filename) throws IOException {
-        List<Integer> xList = new ArrayList<>();
-        List<Integer> yList = new ArrayList<>();
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line = reader.readLine();
-            
-            if (line == null) {
-                throw new IOException("Empty file");
-            }
-            
-            int expectedCount;
-            try {
-                expectedCount = Integer.parseInt(line.trim());
-            } catch (NumberFormatException e) {
-                throw new IOException("First line must be an integer");
-            }
-            
-            int pointCount = 0;
-            while ((line = reader.readLine()) != null && pointCount < expectedCount) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
+        this(filename, new File(filename).length() >= PARALLEL_THRESHOLD
+            ? Runtime.getRuntime().availableProcessors() : 1);
+    }
+
+    /**
+     * Constructor - reads and parses text file with the given number of parser threads
+     * @param filename path to text-encoded file
+     * @param parallelism number of fork-join workers; 1 parses sequentially
+     */
+    public TextPointStore(String filename, int parallelism) throws IOException {
+        this(filename, parallelism, MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor - parser threads and smallest chunk size (package-private so tests can force many chunks)
+     * @param filename path to text-encoded file
+     * @param parallelism number of fork-join workers; 1 parses sequentially
+     * @param minChunkSize smallest chunk in bytes
+     */
+    TextPointStore(String filename, int parallelism, long minChunkSize) throws IOException {
+        this(parseFile(filename, parallelism, minChunkSize));
+    }
+
+    /**
+     * Constructor - parses text from a stream, such as a decompressing one, without a temporary file
+     * The stream is read to the end of the points but not closed.
+     * @param in text-encoded points
+     */
+    public TextPointStore(InputStream in) throws IOException {
+        this(in, 0);
+    }
+
+    /**
+     * Constructor - parses text from a stream, presizing the arrays from an expected size
+     * @param in text-encoded points
+     * @param sizeHint expected number of bytes in the stream, or 0 if unknown
+     */
+    TextPointStore(InputStream in, long sizeHint) throws IOException {
+        this(parseStream(in, sizeHint));
+    }
+
+    private TextPointStore(Chunk points) {
+        this.numPoints = points.count;
+        this.xCoords = points.xs;
+        this.yCoords = points.ys;
+    }
+
+    private static Chunk parseStream(InputStream in, long sizeHint) throws IOException {
+        LineReader lines = new LineReader(in);
+        int expectedCount = readHeader(lines);
+
+        // Without a size, start small and let the arrays grow; a bad header must not allocate gigabytes
+        long bound = sizeHint > 0 ? sizeHint / MIN_POINT_BYTES + 1 : STREAM_CAPACITY;
+        int capacity = (int)Math.max(0, Math.min(expectedCount, bound));
+        return checkCount(parsePoints(lines, expectedCount, capacity), expectedCount);
+    }
+
+    private static Chunk checkCount(Chunk points, int expectedCount) throws IOException {
+        if (points.error != null) {
+            throw new IOException(points.error);
+        }
+        if (points.count < expectedCount) {
+            throw new IOException("Expected " + expectedCount + " points but found only " + points.count);
+        }
+        return points;
+    }
+
+    private static Chunk parseFile(String filename, int parallelism, long minChunkSize) throws IOException {
+        long fileSize = new File(filename).length();
+
+        try (FileInputStream in = new FileInputStream(filename)) {
+            LineReader lines = new LineReader(in);
+
+            int expectedCount = readHeader(lines);
+
+            Chunk points;
+            if (parallelism <= 1 || expectedCount <= 0) {
+                // Presize from the header, but never beyond what the file could hold
+                int capacity = (int)Math.max(0, Math.min(expectedCount, fileSize / MIN_POINT_BYTES + 1));
+                points = parsePoints(lines, expectedCount, capacity);
+            } else {
+                long bodyStart = lines.offset();
+                long chunkSize = Math.max(minChunkSize,
+                    (fileSize - bodyStart) / ((long)parallelism * CHUNKS_PER_WORKER) + 1);
+                points = parseParallel(in.getChannel(), bodyStart, fileSize, expectedCount, parallelism, chunkSize);
+            }
+
+            return checkCount(points, expectedCount);
+        }
+    }
+
+    // Point count from the first line
+    private static int readHeader(LineReader lines) throws IOException {
+        if (!lines.next()) {
+            throw new IOException("Empty file");
+        }
+
+        long header = parseInt(lines.buf, trimStart(lines.buf, lines.start, lines.end),
+                               trimEnd(lines.buf, lines.start, lines.end));
+        if (header == INVALID) {
+            throw new IOException("First line must be an integer");
+        }
+        return (int)header;
+    }
+
+    /**
+     * Points parsed from a run of lines, and the first error after them (if any)
+     */
+    static final class Chunk {
+        int[] xs, ys;
+        int count;
+        String error;
+
+        Chunk(int capacity) {
+            xs = new int[capacity];
+            ys = new int[capacity];
+        }
+
+        void add(int x, int y) {
+            if (count == xs.length) {
+                int bigger = Math.max(16, count + (count >> 1));
+                xs = Arrays.copyOf(xs, bigger);
+                ys = Arrays.copyOf(ys, bigger);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            count++;
+        }
+    }
+
+    /**
+     * Parse point lines until maxPoints are found, the input ends, or a line is malformed
+     * @param lines line source positioned after the header (or at a chunk start)
+     * @param maxPoints stop after this many points
+     * @param capacity initial array size
+     * @return parsed points; error is set if parsing stopped at a bad line
+     */
+    static Chunk parsePoints(LineReader lines, int maxPoints, int capacity) throws IOException {
+        return parsePoints(lines, maxPoints, new Chunk(capacity));
+    }
+
+    /**
+     * Parse point lines into an existing chunk, after the points it already holds
+     * @param lines line source positioned after the header (or at a chunk start)
+     * @param maxPoints stop once the chunk holds this many points
+     * @param chunk chunk to add to
+     * @return chunk; error is set if parsing stopped at a bad line
+     */
+    static Chunk parsePoints(LineReader lines, int maxPoints, Chunk chunk) throws IOException {
+        while (chunk.count < maxPoints && lines.next()) {
+            byte[] buf = lines.buf;
+            int start = trimStart(buf, lines.start, lines.end);
+            int end = trimEnd(buf, start, lines.end);
+            if (start == end) {
+                continue; // Blank line
+            }
+
+            // Split on whitespace: exactly two tokens
+            int xEnd = start;
+            while (xEnd < end && !isSpace(buf[xEnd])) xEnd++;
+            int yStart = xEnd;
+            while (yStart < end && isSpace(buf[yStart])) yStart++;
+            int yEnd = yStart;
+            while (yEnd < end && !isSpace(buf[yEnd])) yEnd++;
+            if (yStart == end || yEnd != end) {
+                chunk.error = "Invalid point format: expected 'x y'";
+                break;
+            }
+
+            long x = parseInt(buf, start, xEnd);
+            long y = parseInt(buf, yStart, yEnd);
+            if (x == INVALID || y == INVALID) {
+                chunk.error = "Invalid coordinate values";
+                break;
+            }
+            chunk.add((int)x, (int)y);
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Parse the body of the file in newline-aligned chunks on a fork-join pool,
+     * then stitch the per-chunk arrays together at prefix-sum offsets.
+     * Gives the same points and errors as the sequential parser: an error only counts
+     * if it comes before the header's point count is reached, and lines after that are ignored.
+     * @param channel open file channel
+     * @param bodyStart byte offset just after the header line
+     * @param fileSize file size in bytes
+     * @param expectedCount point count from the header (positive)
+     * @param parallelism number of fork-join workers
+     * @param chunkSize nominal chunk size in bytes
+     * @return parsed points, exactly expectedCount of them unless error is set or the file is short
+     */
+    static Chunk parseParallel(FileChannel channel, long bodyStart, long fileSize, int expectedCount,
+                               int parallelism, long chunkSize) throws IOException {
+        // Nominal split points, each moved forward to just after the next '\n'
+        chunkSize = Math.min(chunkSize, Integer.MAX_VALUE - 8); // Each chunk is read into one byte[]
+        List<long[]> ranges = new ArrayList<>();
+        long start = bodyStart;
+        while (start < fileSize) {
+            long end = start + chunkSize >= fileSize ? fileSize : nextLineStart(channel, start + chunkSize, fileSize);
+            if (end - start > Integer.MAX_VALUE - 8) {
+                end = start + Integer.MAX_VALUE - 8; // One line over 2 GB; it cannot be a valid point anyway
+            }
+            ranges.add(new long[] {start, end});
+            start = end;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Callable<Chunk>> parses = new ArrayList<>();
+            for (long[] range : ranges) {
+                parses.add(() -> {
+                    byte[] bytes = new byte[(int)(range[1] - range[0])];
+                    readFully(channel, bytes, range[0]);
+                    LineReader lines = new LineReader(bytes, bytes.length);
+                    return parsePoints(lines, expectedCount, bytes.length / 8 + 16);
+                });
+            }
+            List<Chunk> chunks = new ArrayList<>();
+            for (Future<Chunk> parse : pool.invokeAll(parses)) {
+                chunks.add(parse.get());
+            }
+
+            // Prefix sums of chunk counts; stop at the first error or once the header count is reached
+            Chunk result = new Chunk(0);
+            int[] offsets = new int[chunks.size()];
+            int used = 0;
+            long total = 0;
+            for (Chunk chunk : chunks) {
+                offsets[used++] = (int)total;
+                total += chunk.count;
+                if (total >= expectedCount) {
+                    break;
                 }
-                
-                String[] parts = line.split("\\s+");
-                if (parts.length != 2) {
-                    throw new IOException("Invalid point format: expected 'x y'");
+                if (chunk.error != null) {
+                    result.error = chunk.error;
+                    break;
                 }
-                
-                try {
-                    int x = Integer.parseInt(parts[0]);
-                    int y = Integer.parseInt(parts[1]);
-                    xList.add(x);
-                    yList.add(y);
-                    pointCount++;
-                } catch (NumberFormatException e) {
-                    throw new IOException("Invalid coordinate values");
+            }
+            result.count = (int)Math.min(total, expectedCount);
+            if (result.error != null) {
+                return result;
+            }
+
+            // Copy each chunk into place in parallel
+            int[] xs = new int[result.count];
+            int[] ys = new int[result.count];
+            List<Callable<Void>> copies = new ArrayList<>();
+            for (int c = 0; c < used; c++) {
+                Chunk chunk = chunks.get(c);
+                int offset = offsets[c];
+                int length = Math.min(chunk.count, result.count - offset);
+                copies.add(() -> {
+                    System.arraycopy(chunk.xs, 0, xs, offset, length);
+                    System.arraycopy(chunk.ys, 0, ys, offset, length);
+                    return null;
+                });
+            }
+            for (Future<Void> copy : pool.invokeAll(copies)) {
+                copy.get();
+            }
+            result.xs = xs;
+            result.ys = ys;
+            return result;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Error parsing chunk: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Offset just after the first '\n' at or after position, or fileSize if there is none
+    private static long nextLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(BLOCK_SIZE);
+        while (position < fileSize) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int k = 0; k < read; k++) {
+                if (probe.get(k) == '\n') {
+                    return position + k + 1;
                 }
             }
-            
-            if (pointCount < expectedCount) {
-                throw new IOException("Expected " + expectedCount + " points but found only " + pointCount);
+            position += read;
+        }
+        return fileSize;
+    }
+
+    private static void readFully(FileChannel channel, byte[] bytes, long position) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(bytes);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("File changed while reading");
+            }
+        }
+    }
+
+    // Same set as the regex \s, minus the line terminators that never appear inside a line
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+    // String.trim drops every char <= ' ' at both ends
+    static int trimStart(byte[] buf, int start, int end) {
+        while (start < end && (buf[start] & 0xFF) <= ' ') start++;
+        return start;
+    }
+
+    static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') end--;
+        return end;
+    }
+
+    /**
+     * Parse a signed decimal int the way Integer.parseInt does (ASCII digits only)
+     * @param buf bytes to parse
+     * @param start first byte (inclusive)
+     * @param end last byte (exclusive)
+     * @return value, or INVALID if Integer.parseInt would throw
+     */
+    static long parseInt(byte[] buf, int start, int end) {
+        if (start >= end) {
+            return INVALID;
+        }
+
+        boolean negative = false;
+        if (buf[start] == '-' || buf[start] == '+') {
+            negative = buf[start] == '-';
+            start++;
+            if (start == end) {
+                return INVALID;
             }
         }
-        
-        // Convert to arrays for fast access
-        this.numPoints = xList.size();
-        this.xCoords = new int[numPoints];
-        this.yCoords = new int[numPoints];
-        
-        for (int i = 0; i < numPoints; i++) {
-            xCoords[i] = xList.get(i);
-            yCoords[i] = yList.get(i);
+
+        long limit = negative ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int k = start; k < end; k++) {
+            int digit = buf[k] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return INVALID;
+            }
         }
+        return negative ? -value : value;
     }
-    
+
+    /**
+     * Splits a byte stream into lines the way BufferedReader.readLine does
+     * (terminated by \n, \r or \r\n). The current line is buf[start, end).
+     */
+    static final class LineReader {
+        private final InputStream in;
+        byte[] buf;
+        int start, end;
+        private int pos, limit;
+        private long consumed; // bytes dropped from the front of buf so far
+        private boolean eof, skipLineFeed;
+
+        LineReader(InputStream in) {
+            this.in = in;
+            this.buf = new byte[BLOCK_SIZE];
+        }
+
+        // Lines of an in-memory chunk
+        LineReader(byte[] bytes, int length) {
+            this.in = null;
+            this.buf = bytes;
+            this.limit = length;
+            this.eof = true;
+        }
+
+        /**
+         * Get the byte offset of the next unread byte
+         * @return bytes consumed from the start of the input
+         */
+        long offset() {
+            return consumed + pos;
+        }
+
+        /**
+         * Advance to the next line
+         * @return false at end of input
+         */
+        boolean next() throws IOException {
+            while (true) {
+                // A \r at the end of the previous line may be followed by \n
+                if (skipLineFeed && pos < limit) {
+                    if (buf[pos] == '\n') pos++;
+                    skipLineFeed = false;
+                }
+
+                for (int k = pos; k < limit; k++) {
+                    byte b = buf[k];
+                    if (b == '\n' || b == '\r') {
+                        start = pos;
+                        end = k;
+                        pos = k + 1;
+                        skipLineFeed = b == '\r';
+                        return true;
+                    }
+                }
+
+                if (eof) {
+                    skipLineFeed = false;
+                    if (pos < limit) {
+                        // Last line without a terminator
+                        start = pos;
+                        end = limit;
+                        pos = limit;
+                        return true;
+                    }
+                    return false;
+                }
+
+                fill();
+            }
+        }
+
+        // Keep the partial line, grow only if one line fills the whole buffer, then read more
+        private void fill() throws IOException {
+            int remaining = limit - pos;
+            consumed += pos;
+            if (remaining == buf.length) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, pos, bigger, 0, remaining);
+                buf = bigger;
+            } else if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, remaining);
+            }
+            pos = 0;
+            limit = remaining;
+
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * BatchReader - reads a text file a batch of points at a time, for streaming conversions
+     * Gives the same points and errors as the constructor without holding the whole file.
+     */
+    static final class BatchReader implements Closeable {
+        private final InputStream in;
+        private final LineReader lines;
+        private final int expectedCount;
+        private int total;
+
+        BatchReader(String filename) throws IOException {
+            this(new FileInputStream(filename));
+        }
+
+        // Takes ownership of in
+        BatchReader(InputStream in) throws IOException {
+            this.in = in;
+            try {
+                lines = new LineReader(in);
+                expectedCount = readHeader(lines);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        int expectedCount() {
+            return Math.max(0, expectedCount);
+        }
+
+        /**
+         * Replace the contents of chunk with the next points, as many as fit in its arrays
+         * @param chunk chunk to fill
+         * @return false once every point has been read
+         * @throws IOException on a malformed line or if the file ends early
+         */
+        boolean read(Chunk chunk) throws IOException {
+            if (total >= expectedCount) {
+                return false;
+            }
+            chunk.count = 0;
+            chunk.error = null;
+            parsePoints(lines, Math.min(chunk.xs.length, expectedCount - total), chunk);
+            if (chunk.error != null) {
+                throw new IOException(chunk.error);
+            }
+            if (chunk.count == 0) {
+                throw new IOException("Expected " + expectedCount + " points but found only " + total);
+            }
+            total += chunk.count;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writer - streams points to a text file
+     * The count line is written as 11 spaces and filled in on close; the parser trims it.
+     */
+    public static class Writer implements PointStoreWriter {
+
+        // Longest int is 11 characters ("-2147483648"); a point line is two of them, a space and '\n'
+        private static final int MAX_LINE_BYTES = 24;
+        private static final int COUNT_LINE_BYTES = 12;
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ChannelOutput out;
+        private final byte[] digits = new byte[11];
+        private long count;
+
+        /**
+         * Constructor
+         * @param filename path of the file to create or replace
+         */
+        public Writer(String filename) throws IOException {
+            file = new RandomAccessFile(filename, "rw");
+            channel = file.getChannel();
+            channel.truncate(0);
+            out = new ChannelOutput(channel, 0, ByteOrder.BIG_ENDIAN, null);
+            ByteBuffer line = out.reserve(COUNT_LINE_BYTES);
+            for (int k = 0; k < COUNT_LINE_BYTES - 1; k++) {
+                line.put((byte)' ');
+            }
+            line.put((byte)'\n');
+        }
+
+        @Override
+        public void write(int[] xs, int[] ys, int offset, int n) throws IOException {
+            for (int k = offset; k < offset + n; k++) {
+                ByteBuffer line = out.reserve(MAX_LINE_BYTES);
+                putInt(line, xs[k]);
+                line.put((byte)' ');
+                putInt(line, ys[k]);
+                line.put((byte)'\n');
+            }
+            count += n;
+        }
+
+        // Decimal digits of value, written backwards into the scratch array
+        private void putInt(ByteBuffer line, int value) {
+            long v = Math.abs((long)value);
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte)('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            if (value < 0) {
+                digits[--pos] = '-';
+            }
+            line.put(digits, pos, digits.length - pos);
+        }
+
+        @Override
+        public long numPoints() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+                if (count > Integer.MAX_VALUE) {
+                    throw new IOException("Cannot write more than " + Integer.MAX_VALUE + " points");
+                }
+                ByteBuffer line = ByteBuffer.allocate(COUNT_LINE_BYTES);
+                putInt(line, (int)count);
+                line.flip();
+                while (line.hasRemaining()) {
+                    channel.write(line, line.position());
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
     @Override
     public int getX(int idx) {
         if (idx < 0 || idx >= numPoints) {
@@ -84,7 +662,7 @@ public class TextPointStore implements PointStore {
         }
         return xCoords[idx];
     }
-    
+
     @Override
     public int getY(int idx) {
         if (idx < 0 || idx >= numPoints) {
@@ -92,14 +670,21 @@ public class TextPointStore implements PointStore {
         }
         return yCoords[idx];
     }
+
+    @Override
+    public void getPoints(int startIdx, int count, int[] xs, int[] ys, int offset) {
+        PointStore.checkRange(startIdx, count, numPoints, xs, ys, offset);
+        System.arraycopy(xCoords, startIdx, xs, offset, count);
+        System.arraycopy(yCoords, startIdx, ys, offset, count);
+    }
     
     @Override
     public int numPoints() {
         return numPoints;
     }
-    
+
     @Override
     public void close() {
-        // No resources to close for text files (BufferedReader closed in constructor)
+        // No resources to close for text files (input stream closed in constructor)
     }
 }
@@ -2,31 +2,38 @@ package com.tryright;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * ThreadTriangles - counts right triangles using multiple threads
  * Uses PointStore interface to support both text and binary formats
  *
- * Usage: java com.tryright.ThreadTriangles <input_file> <num_threads>
+ * Usage: java com.tryright.ThreadTriangles [--report] <input_file> <num_threads> [kernel] [memory_budget]
+ *
+ * --report prints per-worker CPU time, allocation, vertices and wall time to stderr
+ * after the count, with an imbalance factor.
+ * kernel is one of auto (default), hash, brute-force or dictionary.
+ * With dictionary, all threads share one DirectionDictionary.
+ * A single thread counts on a SequentialEngine instead.
+ * memory_budget (e.g. 512m, 2g) defaults to the JVM max heap; MemoryGovernor
+ * caps threads or switches kernel before copying the points if the job would not fit.
  *
  * Unlike ProcessTriangles which uses separate processes and pipes for IPC,
  * this implementation uses threads that share the same memory space.
- * Communication is done through a shared results array; each thread
- * writes its count to its own slot, and the main thread sums them.
+ * Workers run on ForkJoinTriangles' work-stealing pool: the corner range is split
+ * recursively, and the counts of the halves are summed as the splits join.
  */
 public class ThreadTriangles {
 
-    // Shared memory: array where each thread stores its result
-    // Thread i writes to results[i], so no synchronization needed
-    private static int[] results;
-
-    // Shared memory: the PointStore (read-only for worker threads)
-    private static PointStore store;
-
     public static void main(String[] args) {
+        boolean report = args.length > 0 && args[0].equals("--report");
+        if (report) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
         // Check command line arguments
-        if (args.length != 2) {
-            System.err.println("Usage: java com.tryright.ThreadTriangles <input_file> <num_threads>");
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: java com.tryright.ThreadTriangles [--report] <input_file> <num_threads> [kernel] [memory_budget]");
             System.exit(1);
         }
 
@@ -52,6 +59,26 @@ public class ThreadTriangles {
             System.exit(1);
         }
 
+        Kernel kernel = Kernel.AUTO;
+        if (args.length >= 3) {
+            try {
+                kernel = Kernel.parse(args[2]);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Unknown kernel: " + args[2]);
+                System.exit(1);
+            }
+        }
+
+        long memoryBudget = Runtime.getRuntime().maxMemory();
+        if (args.length == 4) {
+            try {
+                memoryBudget = MemoryGovernor.parseBudget(args[3]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid memory budget: " + args[3]);
+                System.exit(1);
+            }
+        }
+
         // Check if file exists and is readable
         File inputFile = new File(filename);
         if (!inputFile.exists()) {
@@ -64,73 +91,41 @@ public class ThreadTriangles {
             System.exit(2);
         }
 
+        PointStore store = null;
         try {
-            // Create PointStore (appropriate implementation based on file extension)
+            // Create PointStore (implementation chosen from the file's contents)
             store = TrianglesUtils.createPointStore(filename);
             int numPoints = store.numPoints();
-
-            // Handle small datasets with single thread
-            if (numPoints < 3 || numThreads == 1) {
-                int count = TrianglesUtils.countRightTriangles(store, 0, numPoints);
-                System.out.println(count);
-                return;
+            PointStats pointStats = store.getStats();
+
+            // Check the job against the memory budget before copying any points
+            PointStats bounds = pointStats != null && pointStats.verified ? pointStats
+                : TrianglesUtils.scanBounds(store);
+            MemoryGovernor.Plan plan = MemoryGovernor.plan(numPoints, Math.min(numThreads, Math.max(1, numPoints)),
+                kernel, memoryBudget, bounds.fitsExactDotProduct(), bounds);
+            if (plan.isChanged()) {
+                System.err.println(plan.message);
             }
-
-            // Limit threads to dataset size (no point having more threads than points)
-            int actualThreads = Math.min(numThreads, numPoints);
-
-            // Allocate shared results array - each thread gets one slot
-            results = new int[actualThreads];
-
-            // Create and start worker threads
-            Thread[] workers = new Thread[actualThreads];
-            int pointsPerThread = (numPoints + actualThreads - 1) / actualThreads;
-
-            for (int i = 0; i < actualThreads; i++) {
-                final int threadIndex = i;
-                final int startIdx = i * pointsPerThread;
-                final int endIdx = Math.min((i + 1) * pointsPerThread, numPoints);
-
-                // Skip if no work for this thread
-                if (startIdx >= numPoints) {
-                    break;
-                }
-
-                // Create worker thread with explicit stack size for better performance
-                // Each thread reads from shared 'store' and writes to results[threadIndex]
-                workers[i] = new Thread(null, () -> {
-                    int count = TrianglesUtils.countRightTriangles(store, startIdx, endIdx);
-                    results[threadIndex] = count;  // Write to shared memory
-                }, "Worker-" + i, 512 * 1024); // 512KB stack
-            }
-            
-            // Start all threads at once to reduce creation overhead
-            for (int i = 0; i < actualThreads; i++) {
-                if (workers[i] != null) {
-                    workers[i].start();
+            numThreads = plan.threads;
+            kernel = plan.kernel;
+
+            // Copy coordinates once, shared read-only by all worker threads
+            int[] xCoords = new int[numPoints];
+            int[] yCoords = new int[numPoints];
+            store.getPoints(0, numPoints, xCoords, yCoords, 0);
+
+            // Handle small datasets with single thread; otherwise limit threads to dataset size.
+            // Corners are split recursively and idle workers steal, so no worker is left with a straggler range
+            TriangleEngine engine = numPoints < 3 || numThreads == 1 ? new SequentialEngine(kernel)
+                : new ForkJoinTriangles(Math.min(numThreads, numPoints), kernel);
+            try (engine) {
+                TriangleResult result = engine.count(xCoords, yCoords, numPoints, pointStats);
+                System.out.println(result.count);
+                if (report) {
+                    WorkerStats.printReport(System.err, result.getWorkerStats());
                 }
             }
 
-            // Wait for all threads to complete
-            for (Thread worker : workers) {
-                if (worker != null) {
-                    try {
-                        worker.join();
-                    } catch (InterruptedException e) {
-                        System.err.println("Error: Thread interrupted");
-                        System.exit(1);
-                    }
-                }
-            }
-
-            // Sum results from shared memory
-            int totalCount = 0;
-            for (int count : results) {
-                totalCount += count;
-            }
-
-            System.out.println(totalCount);
-
         } catch (IOException e) {
             if (e.getMessage() != null && e.getMessage().contains("Permission denied")) {
                 System.err.println("Error: Permission denied");
@@ -138,6 +133,9 @@ public class ThreadTriangles {
                 System.err.println("Error: " + e.getMessage());
             }
             System.exit(2);
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
         } finally {
             if (store != null) {
                 store.close();
@@ -0,0 +1,52 @@
+package com.tryright;
+
+import java.io.IOException;
+
+/**
+ * TriangleEngine - counts right triangles, for embedding in other programs
+ *
+ * Implementations:
+ *   SequentialEngine   on the calling thread, with any kernel and optional diagnostics
+ *   ForkJoinTriangles  on a work-stealing thread pool
+ *   FutureEngine       on a fixed thread pool, one Future per contiguous range of corners
+ *   ProcessEngine      in child JVMs that map a columnar snapshot of the points
+ *
+ * An engine keeps its threads or child processes between counts, so one engine can
+ * count many stores; close() releases them and the engine must not be used after.
+ * Nothing is printed and nothing exits: I/O and child process failures are thrown as
+ * IOException, and a failure inside a worker thread as IllegalStateException.
+ * Triangles, ThreadTriangles and ProcessTriangles are command-line wrappers around these.
+ */
+public interface TriangleEngine extends AutoCloseable {
+
+    /**
+     * Count right triangles over coordinate arrays
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param stats stats of the n points, or null if unknown
+     * @return count, timings and worker stats
+     */
+    TriangleResult count(int[] xCoords, int[] yCoords, int n, PointStats stats) throws IOException;
+
+    /**
+     * Count right triangles in a store; the store is left open
+     * @param store points to count
+     * @return count, timings (including loading the points) and worker stats
+     */
+    default TriangleResult count(PointStore store) throws IOException {
+        long start = System.nanoTime();
+        int n = store.numPoints();
+        int[] xCoords = new int[n];
+        int[] yCoords = new int[n];
+        store.getPoints(0, n, xCoords, yCoords, 0);
+        long loadNanos = System.nanoTime() - start;
+        return count(xCoords, yCoords, n, store.getStats()).withLoadNanos(loadNanos);
+    }
+
+    /**
+     * Release the engine's threads or processes
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,47 @@
+package com.tryright;
+
+/**
+ * TriangleResult - what a TriangleEngine returns: the count, timings and per-worker stats
+ */
+public class TriangleResult {
+    public final int count;
+    public final int numPoints;
+    public final long loadNanos;  // getting the points out of the store (0 if the caller passed arrays)
+    public final long countNanos; // counting, from first task to last result
+    private final WorkerStats[] workers;
+
+    /**
+     * Constructor
+     * @param count number of right triangles
+     * @param numPoints number of points counted over
+     * @param loadNanos time to load the points
+     * @param countNanos time to count
+     * @param workers stats of each worker, empty if the engine cannot measure them
+     */
+    public TriangleResult(int count, int numPoints, long loadNanos, long countNanos, WorkerStats[] workers) {
+        this.count = count;
+        this.numPoints = numPoints;
+        this.loadNanos = loadNanos;
+        this.countNanos = countNanos;
+        this.workers = workers.clone();
+    }
+
+    /**
+     * Get the stats of each worker that took part
+     * @return copy of the per-worker stats
+     */
+    public WorkerStats[] getWorkerStats() {
+        return workers.clone();
+    }
+
+    // Same result with the time it took to load the points
+    TriangleResult withLoadNanos(long nanos) {
+        return new TriangleResult(count, numPoints, nanos, countNanos, workers);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d right triangles in %d points (load %.1f ms, count %.1f ms, %d workers)",
+            count, numPoints, loadNanos / 1e6, countNanos / 1e6, workers.length);
+    }
+}
@@ -2,19 +2,35 @@ package com.tryright;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Triangles - finds right triangles from a list of points
- * Uses PointStore interface to support both text and binary formats
+ * Uses PointStore interface to support both text and binary formats,
+ * and counts on a SequentialEngine
  *
- * Usage: java com.tryright.Triangles <input_file>
+ * Usage: java com.tryright.Triangles [--diagnostics <sample_every>] <input_file>
+ *
+ * --diagnostics samples every sample_every-th corner's direction table and prints
+ * a KernelDiagnostics report to stderr after the count.
  */
 public class Triangles {
 
     public static void main(String[] args){
+        KernelDiagnostics diagnostics = null;
+        if (args.length == 3 && args[0].equals("--diagnostics")) {
+            try {
+                diagnostics = new KernelDiagnostics(Integer.parseInt(args[1]));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: Sample interval must be a positive integer");
+                System.exit(1);
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
         // Need exactly 1 argumentY
         if (args.length != 1) {
-            System.err.println("Usage: java com.tryright.Triangles <input_file>");
+            System.err.println("Usage: java com.tryright.Triangles [--diagnostics <sample_every>] <input_file>");
             System.exit(1);
         }
 
@@ -34,11 +50,14 @@ public class Triangles {
 
         PointStore store = null;
         try {
-            // Create appropriate PointStore based on file extension
+            // Create appropriate PointStore based on the file's contents
             store = TrianglesUtils.createPointStore(filename);
             
-            int count = TrianglesUtils.countRightTriangles(store, 0, store.numPoints());
-            System.out.println(count);
+            TriangleEngine engine = diagnostics == null ? new SequentialEngine() : new SequentialEngine(diagnostics);
+            System.out.println(engine.count(store).count);
+            if (diagnostics != null) {
+                diagnostics.printReport(System.err);
+            }
 
         } catch (IOException e) {
             if (e.getMessage() != null && e.getMessage().contains("Permission denied")) {
@@ -7,21 +7,24 @@ import java.util.Map;
 /**
  * TrianglesUtils - shared functions for counting right triangles
  *
- * Used by Triangles, ProcessTriangles, ThreadTriangles, and SingleProcessTriangleCounter.
+ * Used by the TriangleEngine implementations and SingleProcessTriangleCounter.
  */
 public class TrianglesUtils {
     /**
-     * Create appropriate PointStore based on filename extension
-     * @param filename Path to file (.dat for binary, otherwise text)
+     * Below this many points the O(n^3) brute-force kernel beats the HashMap kernel.
+     * Measured on random points in a 2000x2000 box: both take ~11.7ms at 250 points,
+     * brute force is ~4x faster at 50 points and hashing pulls ahead past 250.
+     */
+    static final int BRUTE_FORCE_CROSSOVER = 250;
+
+    /**
+     * Create appropriate PointStore based on the file's contents (see PointStoreRegistry)
+     * @param filename Path to file: text, gzipped text, raw or version 2 binary, or compressed
      * @return PointStore instance
      * @throws IOException if file cannot be read or is malformed
      */
     public static PointStore createPointStore(String filename) throws IOException {
-        if (filename.endsWith(".dat")) {
-            return new BinPointStore(filename);
-        } else {
-            return new TextPointStore(filename);
-        }
+        return PointStoreRegistry.open(filename);
     }
 
     // Direction vector between two points
@@ -95,55 +98,297 @@ public class TrianglesUtils {
         // This reduces overhead in the O(n^2) inner loop
         int[] xCoords = new int[n];
         int[] yCoords = new int[n];
-        for (int k = 0; k < n; k++) {
-            xCoords[k] = store.getX(k);
-            yCoords[k] = store.getY(k);
+        store.getPoints(0, n, xCoords, yCoords, 0);
+        
+        return countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, Kernel.AUTO, null, store.getStats());
+    }
+    
+    /**
+     * Count right triangles over cached coordinate arrays
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @return count of right triangles
+     */
+    public static int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx) {
+        return countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, Kernel.AUTO);
+    }
+    
+    /**
+     * Count right triangles over cached coordinate arrays with a chosen kernel
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @param kernel counting algorithm (DICTIONARY uses a fresh dictionary)
+     * @return count of right triangles
+     */
+    public static int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx,
+                                          Kernel kernel) {
+        return countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, kernel, null);
+    }
+    
+    /**
+     * Count right triangles, sampling the HashMap kernel's direction tables into diagnostics.
+     * Diagnostics force the HashMap kernel, since only it builds direction tables.
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @param kernel counting algorithm (DICTIONARY uses a fresh dictionary)
+     * @param diagnostics where to record sampled tables, or null for none
+     * @return count of right triangles
+     */
+    public static int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx,
+                                          Kernel kernel, KernelDiagnostics diagnostics) {
+        return countRightTriangles(xCoords, yCoords, n, startIdx, endIdx, kernel, diagnostics, null);
+    }
+    
+    /**
+     * Count right triangles, using precomputed stats instead of scanning the points to pick
+     * and set up a kernel; stats only claimed by a file header are checked on the points
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points (arrays may be longer)
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @param kernel counting algorithm (DICTIONARY uses a fresh dictionary)
+     * @param diagnostics where to record sampled tables, or null for none
+     * @param stats stats of the n points, or null if unknown
+     * @return count of right triangles
+     */
+    public static int countRightTriangles(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx,
+                                          Kernel kernel, KernelDiagnostics diagnostics, PointStats stats) {
+        if (diagnostics != null) {
+            kernel = Kernel.HASH;
+        }
+        
+        if (n < 3) {
+            return 0;
+        }
+        
+        // Make sure indices are valid
+        if (startIdx < 0) startIdx = 0;
+        if (endIdx > n) endIdx = n;
+        if (startIdx >= endIdx) return 0;
+        
+        if (kernel == Kernel.DICTIONARY) {
+            return new DirectionDictionary().countRightTriangles(xCoords, yCoords, n, startIdx, endIdx);
+        }
+        
+        // Small inputs: building Direction maps costs more than it saves
+        boolean tryBruteForce = kernel == Kernel.BRUTE_FORCE
+            || (kernel == Kernel.AUTO && n < BRUTE_FORCE_CROSSOVER);
+        if (tryBruteForce && fitsExactDotProduct(xCoords, yCoords, n, stats)) {
+            return countRightTrianglesBruteForce(xCoords, yCoords, n, startIdx, endIdx, mayHaveDuplicates(stats));
         }
         
         int totalCount = 0;
         
         // Check each point in the range as the right angle corner
         for (int i = startIdx; i < endIdx; i++) {
-            int vertexX = xCoords[i];
-            int vertexY = yCoords[i];
+            Map<Direction, Integer> directionCounts = countDirections(xCoords, yCoords, n, xCoords[i], yCoords[i], i);
+            totalCount += countPerpendicularPairs(directionCounts);
             
-            // Count how many points are in each direction from this corner
-            // Pre-size HashMap to avoid rehashing (estimate: n/4 unique directions)
-            Map<Direction, Integer> directionCounts = new HashMap<>((n + 2) / 3);
-            
-            // Check all other points
-            for (int j = 0; j < n; j++) {
-                if (i == j) continue; // Skip itself
-                
-                int otherX = xCoords[j];
-                int otherY = yCoords[j];
-                
-                // Find direction from corner to other point
-                long deltaX = (long)otherX - vertexX;
-                long deltaY = (long)otherY - vertexY;
-                
-                Direction dir = new Direction(deltaX, deltaY);
-                
-                // Add one to the count for this direction
-                directionCounts.put(dir, directionCounts.getOrDefault(dir, 0) + 1);
+            if (diagnostics != null && diagnostics.shouldSample(i)) {
+                diagnostics.record(directionCounts, n);
             }
+        }
+        
+        return totalCount;
+    }
+
+    /**
+     * Count how many points lie in each reduced direction from a corner
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param vertexX corner X
+     * @param vertexY corner Y
+     * @param skipIdx index of the corner itself, or -1 if the corner is not in the arrays
+     * @return map from direction to number of points in that direction
+     */
+    static Map<Direction, Integer> countDirections(int[] xCoords, int[] yCoords, int n,
+                                                   int vertexX, int vertexY, int skipIdx) {
+        // Count how many points are in each direction from this corner
+        // Pre-size HashMap to avoid rehashing (estimate: n/4 unique directions)
+        Map<Direction, Integer> directionCounts = new HashMap<>((n + 2) / 3);
+        
+        // Check all other points
+        for (int j = 0; j < n; j++) {
+            if (j == skipIdx) continue; // Skip itself
+            
+            int otherX = xCoords[j];
+            int otherY = yCoords[j];
+            
+            // Find direction from corner to other point
+            long deltaX = (long)otherX - vertexX;
+            long deltaY = (long)otherY - vertexY;
             
-            // Count triangles with right angle at this corner
-            // For each direction, check only the left perpendicular to avoid double-counting
-            for (Map.Entry<Direction, Integer> entry : directionCounts.entrySet()) {
-                Direction dir = entry.getKey();
-                int countInThisDir = entry.getValue();
+            Direction dir = new Direction(deltaX, deltaY);
+            
+            // Add one to the count for this direction
+            directionCounts.put(dir, directionCounts.getOrDefault(dir, 0) + 1);
+        }
+        
+        return directionCounts;
+    }
+    
+    /**
+     * Count triangles with the right angle at the corner a direction table was built for
+     * @param directionCounts map from direction to number of points in that direction
+     * @return count of right triangles at that corner
+     */
+    static int countPerpendicularPairs(Map<Direction, Integer> directionCounts) {
+        int count = 0;
+        
+        // For each direction, check only the left perpendicular to avoid double-counting
+        for (Map.Entry<Direction, Integer> entry : directionCounts.entrySet()) {
+            Direction dir = entry.getKey();
+            int countInThisDir = entry.getValue();
+
+            // Check only left perpendicular (90° counterclockwise)
+            Direction perpLeft = new Direction(-dir.dy, dir.dx);
+            Integer countInPerpDir = directionCounts.get(perpLeft);
+            if (countInPerpDir != null) {
+                count += countInThisDir * countInPerpDir;
+            }
+        }
+        
+        return count;
+    }
+
+    /**
+     * Check that every dot product of two difference vectors fits in a long.
+     * Each axis span must be below 2^31 so a product stays below 2^62 and a sum of two below 2^63.
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @return true if the brute-force kernel is exact for these points
+     */
+    static boolean fitsExactDotProduct(int[] xCoords, int[] yCoords, int n) {
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            minX = Math.min(minX, xCoords[k]);
+            maxX = Math.max(maxX, xCoords[k]);
+            minY = Math.min(minY, yCoords[k]);
+            maxY = Math.max(maxY, yCoords[k]);
+        }
+        return (long)maxX - minX <= Integer.MAX_VALUE && (long)maxY - minY <= Integer.MAX_VALUE;
+    }
 
-                // Check only left perpendicular (90° counterclockwise)
-                Direction perpLeft = new Direction(-dir.dy, dir.dx);
-                Integer countInPerpDir = directionCounts.get(perpLeft);
-                if (countInPerpDir != null) {
-                    totalCount += countInThisDir * countInPerpDir;
+    /**
+     * Check fitsExactDotProduct from verified stats, or by scanning the points if the stats
+     * are unknown or only claimed by a file header
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param stats stats of the n points, or null if unknown
+     * @return true if the brute-force kernel is exact for these points
+     */
+    static boolean fitsExactDotProduct(int[] xCoords, int[] yCoords, int n, PointStats stats) {
+        return stats != null && stats.verified ? stats.fitsExactDotProduct() : fitsExactDotProduct(xCoords, yCoords, n);
+    }
+
+    /**
+     * Check whether the brute-force kernel must scan for duplicates; only verified stats can rule them out
+     * @param stats stats of the points, or null if unknown
+     * @return false only if the points are known to be distinct
+     */
+    static boolean mayHaveDuplicates(PointStats stats) {
+        return stats == null || !stats.verified || stats.hasDuplicates;
+    }
+
+    /**
+     * Scan the bounds of a store in batches, without copying all of it
+     * @param store points to scan
+     * @return verified bounds of the points; duplicates are not checked, so hasDuplicates is true
+     */
+    static PointStats scanBounds(PointStore store) throws IOException {
+        int numPoints = store.numPoints();
+        int batch = Math.min(1 << 16, numPoints);
+        int[] xs = new int[batch];
+        int[] ys = new int[batch];
+        PointStats.Accumulator bounds = new PointStats.Accumulator();
+        for (int start = 0; start < numPoints; start += batch) {
+            int count = Math.min(batch, numPoints - start);
+            store.getPoints(start, count, xs, ys, 0);
+            bounds.add(xs, ys, 0, count);
+        }
+        return bounds.toStats(true);
+    }
+
+    /**
+     * Count right triangles by testing every pair of other points with a dot product.
+     * O(n^3) but allocation-free, so it wins for tiny inputs. Gives the same count as the
+     * HashMap kernel, including its handling of duplicate points (d duplicates add d*d).
+     * Caller must check fitsExactDotProduct first.
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @return count of right triangles
+     */
+    static int countRightTrianglesBruteForce(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx) {
+        return countRightTrianglesBruteForce(xCoords, yCoords, n, startIdx, endIdx, true);
+    }
+    
+    /**
+     * Brute-force count that can skip the duplicate scan when the points are known to be distinct
+     * @param xCoords X coordinates
+     * @param yCoords Y coordinates
+     * @param n number of points
+     * @param startIdx starting index (inclusive)
+     * @param endIdx ending index (exclusive)
+     * @param mayHaveDuplicates false only if no point occurs twice
+     * @return count of right triangles
+     */
+    static int countRightTrianglesBruteForce(int[] xCoords, int[] yCoords, int n, int startIdx, int endIdx,
+                                             boolean mayHaveDuplicates) {
+        int totalCount = 0;
+        
+        for (int i = startIdx; i < endIdx; i++) {
+            long vertexX = xCoords[i];
+            long vertexY = yCoords[i];
+            
+            // Points equal to the vertex (including the vertex itself) have a zero vector
+            int zeroVectors = 1;
+            if (mayHaveDuplicates) {
+                zeroVectors = 0;
+                for (int k = 0; k < n; k++) {
+                    if (xCoords[k] == vertexX && yCoords[k] == vertexY) {
+                        zeroVectors++;
+                    }
                 }
             }
+            int duplicates = zeroVectors - 1;
+            totalCount += duplicates * duplicates;
+            
+            int zerosSeen = 0;
+            for (int j = 0; j < n; j++) {
+                long ax = xCoords[j] - vertexX;
+                long ay = yCoords[j] - vertexY;
+                if (ax == 0 && ay == 0) {
+                    zerosSeen++;
+                    continue;
+                }
+                
+                // Branch-free inner loop; zero vectors always give dot == 0 so subtract them after
+                int perpendicular = 0;
+                for (int k = j + 1; k < n; k++) {
+                    long dot = ax * (xCoords[k] - vertexX) + ay * (yCoords[k] - vertexY);
+                    perpendicular += dot == 0 ? 1 : 0;
+                }
+                totalCount += perpendicular - (zeroVectors - zerosSeen);
+            }
         }
         
         return totalCount;
     }
-
 }
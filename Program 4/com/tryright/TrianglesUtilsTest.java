@@ -0,0 +1,481 @@
+package com.tryright;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("TrianglesUtils")
+class TrianglesUtilsTest {
+
+  @ParameterizedTest
+  @DisplayName("expected counts from TestPlan")
+  @CsvSource({
+      "test/single_right_triangle.txt, 1",
+      "test/square_points.txt, 4",
+      "test/test_spec_list.txt, 4",
+      "test/duplicate_points.txt, 4",
+      "test/collinear_points.txt, 6",
+      "test/test_giant_triangle.txt, 12",
+      "test/test_long_list.txt, 32909",
+      "test/test_long_list.dat, 32909"
+  })
+  void testCounts(String filename, int expected) throws IOException {
+    PointStore store = TrianglesUtils.createPointStore(filename);
+    try {
+      assertEquals(expected, TrianglesUtils.countRightTriangles(store, 0, store.numPoints()));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("brute-force kernel matches HashMap kernel")
+  void testBruteForceMatchesHashing() {
+    Random random = new Random(4180);
+    for (int trial = 0; trial < 200; trial++) {
+      // Small coordinate range so duplicates and collinear points are common
+      int n = random.nextInt(30);
+      int[] xCoords = new int[n];
+      int[] yCoords = new int[n];
+      for (int k = 0; k < n; k++) {
+        xCoords[k] = random.nextInt(9) - 4;
+        yCoords[k] = random.nextInt(9) - 4;
+      }
+      assertEquals(hashCount(xCoords, yCoords),
+          TrianglesUtils.countRightTrianglesBruteForce(xCoords, yCoords, n, 0, n));
+    }
+  }
+
+  @Test
+  @DisplayName("brute-force kernel skips the duplicate scan for distinct points")
+  void testBruteForceDistinct() {
+    Random random = new Random(4181);
+    for (int trial = 0; trial < 100; trial++) {
+      int n = random.nextInt(30);
+      int[] xCoords = new int[n];
+      int[] yCoords = new int[n];
+      for (int k = 0; k < n; k++) {
+        xCoords[k] = random.nextInt(9) - 4;
+        yCoords[k] = random.nextInt(9) - 4;
+      }
+      PointStats stats = PointStats.compute(xCoords, yCoords, n);
+      assertEquals(hashCount(xCoords, yCoords),
+          TrianglesUtils.countRightTrianglesBruteForce(xCoords, yCoords, n, 0, n, stats.hasDuplicates));
+      assertEquals(hashCount(xCoords, yCoords), TrianglesUtils.countRightTriangles(xCoords, yCoords, n, 0, n,
+          Kernel.BRUTE_FORCE, null, stats));
+    }
+  }
+
+  @ParameterizedTest
+  @DisplayName("every kernel gives the expected count")
+  @CsvSource({
+      "HASH, test/test_spec_list.txt, 4",
+      "HASH, test/test_time_list.txt, 2161",
+      "BRUTE_FORCE, test/duplicate_points.txt, 4",
+      "BRUTE_FORCE, test/test_giant_triangle.txt, 12",
+      "DICTIONARY, test/duplicate_points.txt, 4",
+      "DICTIONARY, test/collinear_points.txt, 6",
+      "DICTIONARY, test/test_giant_triangle.txt, 12",
+      "DICTIONARY, test/test_time_list.txt, 2161"
+  })
+  void testKernels(Kernel kernel, String filename, int expected) throws IOException {
+    PointStore store = TrianglesUtils.createPointStore(filename);
+    try {
+      int n = store.numPoints();
+      int[] xCoords = new int[n];
+      int[] yCoords = new int[n];
+      for (int k = 0; k < n; k++) {
+        xCoords[k] = store.getX(k);
+        yCoords[k] = store.getY(k);
+      }
+      assertEquals(expected, TrianglesUtils.countRightTriangles(xCoords, yCoords, n, 0, n, kernel));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("exact dot product range check")
+  void testFitsExactDotProduct() {
+    assertTrue(TrianglesUtils.fitsExactDotProduct(
+        new int[] {0, Integer.MAX_VALUE}, new int[] {0, 0}, 2));
+    assertFalse(TrianglesUtils.fitsExactDotProduct(
+        new int[] {Integer.MIN_VALUE, Integer.MAX_VALUE}, new int[] {0, 0}, 2));
+  }
+
+  @Test
+  @DisplayName("grid region counts match counting the cropped points")
+  void testGridIndexRegions() throws Exception {
+    PointStore store = TrianglesUtils.createPointStore("test/test_long_list.txt");
+    GridIndex index = new GridIndex(store);
+    Random random = new Random(4180);
+    try {
+      for (int trial = 0; trial < 20; trial++) {
+        int x1 = random.nextInt(5000), x2 = x1 + random.nextInt(1500);
+        int y1 = random.nextInt(5000), y2 = y1 + random.nextInt(1500);
+
+        int[] xCoords = new int[store.numPoints()];
+        int[] yCoords = new int[store.numPoints()];
+        int n = 0;
+        for (int k = 0; k < store.numPoints(); k++) {
+          int x = store.getX(k), y = store.getY(k);
+          if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
+            xCoords[n] = x;
+            yCoords[n] = y;
+            n++;
+          }
+        }
+        assertEquals(TrianglesUtils.countRightTriangles(xCoords, yCoords, n, 0, n),
+            index.countInRegion(x1, y1, x2, y2));
+      }
+      assertEquals(32909, index.countInRegion(Integer.MIN_VALUE, Integer.MIN_VALUE,
+          Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+      // A failing query surfaces instead of leaving its count at 0
+      List<int[]> queries = new ArrayList<>();
+      for (int q = 0; q < 8; q++) {
+        queries.add(new int[] {0, 0, 100 * q, 100 * q});
+      }
+      queries.add(new int[] {0, 0});
+      assertThrows(IllegalStateException.class, () -> RegionTriangles.countRegions(index, queries, 3));
+      queries.remove(8);
+      assertEquals(index.countInRegion(0, 0, 700, 700), RegionTriangles.countRegions(index, queries, 3)[7]);
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("vertex queries add up to the full count")
+  void testVertexQueries() throws IOException {
+    PointStore store = TrianglesUtils.createPointStore("test/duplicate_points.txt");
+    try {
+      VertexQueries queries = new VertexQueries(store, 2);
+      int total = 0;
+      for (int k = 0; k < queries.numPoints(); k++) {
+        total += queries.countAtIndex(k);
+        assertEquals(queries.countAtIndex(k), queries.countAt(store.getX(k), store.getY(k)));
+      }
+      assertEquals(4, total);
+
+      // (1, 1) is not in the set: right angle with (1, 0) and (0, 1)
+      assertEquals(1, queries.countAt(1, 1));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("kernel diagnostics sample every other corner of a unit square")
+  void testKernelDiagnostics() {
+    // (0,0) and (0,1) are sampled; each sees 3 directions, one of which has its left perpendicular
+    int[] xCoords = {0, 1, 0, 1};
+    int[] yCoords = {0, 0, 1, 1};
+    KernelDiagnostics diagnostics = new KernelDiagnostics(2);
+    assertEquals(4, new SequentialEngine(diagnostics).count(xCoords, yCoords, 4, null).count);
+
+    assertEquals(2, diagnostics.getSampledCorners());
+    long[] distinct = diagnostics.getDistinctHistogram();
+    assertEquals(2, distinct[1]);
+    assertEquals(2, Arrays.stream(distinct).sum());
+    assertEquals(6, Arrays.stream(diagnostics.getProbeHistogram()).sum());
+    assertEquals(1.0 / 3, diagnostics.partnerFraction(), 1e-9);
+    assertTrue(diagnostics.meanProbeLength() >= 1);
+  }
+
+  @Test
+  @DisplayName("memory governor caps threads, then switches kernel")
+  void testMemoryGovernor() {
+    long perWorker = MemoryGovernor.perWorkerBytes(5000, Kernel.HASH);
+    long shared = MemoryGovernor.sharedBytes(5000, Kernel.HASH);
+
+    MemoryGovernor.Plan fits = MemoryGovernor.plan(5000, 8, Kernel.HASH, shared + 8 * perWorker, true);
+    assertFalse(fits.isChanged());
+    assertEquals(8, fits.threads);
+
+    MemoryGovernor.Plan capped = MemoryGovernor.plan(5000, 8, Kernel.HASH, shared + 3 * perWorker, true);
+    assertEquals(3, capped.threads);
+    assertEquals(Kernel.HASH, capped.kernel);
+
+    MemoryGovernor.Plan switched = MemoryGovernor.plan(5000, 8, Kernel.HASH, shared + perWorker / 2, true);
+    assertEquals(Kernel.BRUTE_FORCE, switched.kernel);
+
+    assertThrows(IllegalStateException.class,
+        () -> MemoryGovernor.plan(5000, 8, Kernel.HASH, shared + perWorker / 2, false));
+
+    // Too large for an O(n^3) fallback
+    long bigShared = MemoryGovernor.sharedBytes(50_000, Kernel.HASH);
+    assertThrows(IllegalStateException.class,
+        () -> MemoryGovernor.plan(50_000, 8, Kernel.HASH, bigShared + 1000, true));
+
+    // A dictionary needs a group per pair of points, so it gives way to the hash kernel
+    assertTrue(MemoryGovernor.sharedBytes(5000, Kernel.DICTIONARY) > 5000L * 5000);
+    MemoryGovernor.Plan hash = MemoryGovernor.plan(5000, 8, Kernel.DICTIONARY, shared + 8 * perWorker, true);
+    assertEquals(Kernel.HASH, hash.kernel);
+    assertEquals(8, hash.threads);
+    assertEquals(5000L * 4999 / 2, MemoryGovernor.dictionaryGroups(5000, null));
+
+    // A 70x70 grid has few reduced directions, so the dictionary stays under the default budget
+    int[] xGrid = new int[4900];
+    int[] yGrid = new int[4900];
+    for (int k = 0; k < 4900; k++) {
+      xGrid[k] = k % 70;
+      yGrid[k] = k / 70;
+    }
+    PointStats grid = PointStats.compute(xGrid, yGrid, 4900);
+    assertEquals(139L * 139, MemoryGovernor.dictionaryGroups(4900, grid));
+    MemoryGovernor.Plan dictionary = MemoryGovernor.plan(4900, 8, Kernel.DICTIONARY,
+        Runtime.getRuntime().maxMemory(), true, grid);
+    assertFalse(dictionary.isChanged());
+    assertEquals(Kernel.DICTIONARY, dictionary.kernel);
+    assertEquals(512L << 20, MemoryGovernor.parseBudget("512m"));
+  }
+
+  @Test
+  @DisplayName("out-of-core blocks give the in-memory count")
+  void testOutOfCore() throws IOException {
+    // Small coordinate range so many directions repeat and partitions share tables
+    Random random = new Random(4185);
+    int n = 300;
+    int[] xCoords = new int[n];
+    int[] yCoords = new int[n];
+    for (int k = 0; k < n; k++) {
+      xCoords[k] = random.nextInt(41) - 20;
+      yCoords[k] = random.nextInt(41) - 20;
+    }
+    int expected = TrianglesUtils.countRightTriangles(xCoords, yCoords, n, 0, n);
+
+    // Raw big-endian pairs, and a little-endian payload after a version 2 header
+    File raw = File.createTempFile("outOfCore", ".dat");
+    File v2 = File.createTempFile("outOfCoreV2", ".dat");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new FileOutputStream(raw))) {
+        for (int k = 0; k < n; k++) {
+          out.writeInt(xCoords[k]);
+          out.writeInt(yCoords[k]);
+        }
+      }
+      PointFileHeader.write(v2.getAbsolutePath(), xCoords, yCoords, n, false);
+      try (RandomAccessFile file = new RandomAccessFile(raw, "r")) {
+        assertEquals(expected, OutOfCoreTriangles.countRightTriangles(file.getChannel(), n, 37));
+        assertEquals(expected, OutOfCoreTriangles.countRightTriangles(file.getChannel(), 0,
+            ByteOrder.BIG_ENDIAN, n, 64, 7));
+      }
+      try (RandomAccessFile file = new RandomAccessFile(v2, "r")) {
+        assertEquals(expected, OutOfCoreTriangles.countRightTriangles(file.getChannel(),
+            PointFileHeader.HEADER_SIZE, ByteOrder.LITTLE_ENDIAN, n, 100, 3));
+      }
+    } finally {
+      raw.delete();
+      v2.delete();
+    }
+
+    // A billion points no longer need a billion-entry table per corner
+    long budget = 256L << 20;
+    int partitions = OutOfCoreTriangles.partitions(1_000_000_000L, budget);
+    assertTrue(partitions > 1);
+    assertTrue(OutOfCoreTriangles.blockSize(1_000_000_000L, partitions, budget) >= 1);
+    assertEquals(1, OutOfCoreTriangles.partitions(5000, budget));
+  }
+
+  @Test
+  @DisplayName("out-of-core blocks give the TestPlan count on 5000 points")
+  @EnabledIfSystemProperty(named = "slowTests", matches = "true")
+  void testOutOfCoreLongList() throws IOException {
+    // About 40 s: two full passes over test_long_list.dat
+    try (RandomAccessFile file = new RandomAccessFile("test/test_long_list.dat", "r")) {
+      assertEquals(32909, OutOfCoreTriangles.countRightTriangles(file.getChannel(), 5000, 700));
+      assertEquals(32909, OutOfCoreTriangles.countRightTriangles(file.getChannel(), 0,
+          ByteOrder.BIG_ENDIAN, 5000, 1200, 7));
+    }
+  }
+
+  @Test
+  @DisplayName("reusable direction table matches HashMap kernel")
+  void testDirectionTable() {
+    Random random = new Random(4182);
+    DirectionTable table = new DirectionTable();
+    for (int trial = 0; trial < 200; trial++) {
+      // Table is reused across sizes; extreme coordinates need the 64-bit deltas
+      int n = random.nextInt(40);
+      boolean wide = trial % 2 == 1;
+      int[] xCoords = new int[n];
+      int[] yCoords = new int[n];
+      for (int k = 0; k < n; k++) {
+        xCoords[k] = wide ? random.nextInt() : random.nextInt(9) - 4;
+        yCoords[k] = wide ? random.nextInt(3) : random.nextInt(9) - 4;
+      }
+      int total = 0;
+      for (int i = 0; i < n; i++) {
+        total += table.countCorner(xCoords, yCoords, n, i);
+      }
+      assertEquals(hashCount(xCoords, yCoords), total);
+    }
+  }
+
+  @Test
+  @DisplayName("reused direction table and engine grow within one table capacity")
+  void testDirectionTableGrowth() throws IOException {
+    // 5 -> 8 and 250 -> 256 keep the power-of-two capacity but need more touched slots;
+    // coordinates are spread out so nearly every direction from a corner is distinct
+    Random random = new Random(4183);
+    DirectionTable table = new DirectionTable();
+    try (ForkJoinTriangles engine = new ForkJoinTriangles(1, Kernel.HASH)) {
+      for (int n : new int[] {5, 8, 250, 256}) {
+        int[] xCoords = new int[n];
+        int[] yCoords = new int[n];
+        for (int k = 0; k < n; k++) {
+          xCoords[k] = random.nextInt(100_000);
+          yCoords[k] = random.nextInt(100_000);
+        }
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+          total += table.countCorner(xCoords, yCoords, n, i);
+        }
+        int expected = hashCount(xCoords, yCoords);
+        assertEquals(expected, total);
+        assertEquals(expected, engine.count(xCoords, yCoords, n, null).count);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @DisplayName("work-stealing engine gives the expected count")
+  @CsvSource({
+      "AUTO, 1, test/test_time_list.txt, 2161",
+      "HASH, 3, test/test_time_list.txt, 2161",
+      "HASH, 4, test/duplicate_points.txt, 4",
+      "BRUTE_FORCE, 3, test/test_giant_triangle.txt, 12",
+      "DICTIONARY, 3, test/collinear_points.txt, 6",
+      "DICTIONARY, 2, test/test_time_list.txt, 2161",
+      "AUTO, 4, test/test_long_list.txt, 32909"
+  })
+  void testForkJoin(Kernel kernel, int parallelism, String filename, int expected) throws IOException {
+    PointStore store = TrianglesUtils.createPointStore(filename);
+    try (ForkJoinTriangles engine = new ForkJoinTriangles(parallelism)) {
+      int n = store.numPoints();
+      int[] xCoords = new int[n];
+      int[] yCoords = new int[n];
+      store.getPoints(0, n, xCoords, yCoords, 0);
+      // The pool and the scratch are reused by the second count, against a fresh dictionary
+      for (int run = 0; run < 2; run++) {
+        assertEquals(expected, engine.countRightTriangles(xCoords, yCoords, n, kernel, store.getStats()));
+        int vertices = 0;
+        for (WorkerStats stats : engine.getWorkerStats()) {
+          vertices += stats.getVertices();
+        }
+        assertEquals(n, vertices);
+        // Pool threads and at most the calling thread
+        assertTrue(engine.getWorkerStats().length <= parallelism + 1);
+      }
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  @DisplayName("every engine gives the same count and can be reused")
+  void testEngines() throws IOException {
+    TriangleEngine[] engines = {new SequentialEngine(), new SequentialEngine(Kernel.DICTIONARY),
+        new ForkJoinTriangles(3, Kernel.HASH), new FutureEngine(3, Kernel.AUTO), new ProcessEngine(2)};
+    // 250 -> 256 points fit the same table capacity but touch more directions per corner
+    Random random = new Random(4184);
+    int[][] xGrowing = new int[2][], yGrowing = new int[2][];
+    int[] expectedGrowing = new int[2];
+    for (int g = 0; g < 2; g++) {
+      int n = g == 0 ? 250 : 256;
+      xGrowing[g] = new int[n];
+      yGrowing[g] = new int[n];
+      for (int k = 0; k < n; k++) {
+        // Wide enough that nearly every direction from a corner is distinct
+        xGrowing[g][k] = random.nextInt(100_000);
+        yGrowing[g][k] = random.nextInt(100_000);
+      }
+      expectedGrowing[g] = hashCount(xGrowing[g], yGrowing[g]);
+    }
+    try {
+      for (TriangleEngine engine : engines) {
+        for (int g = 0; g < 2; g++) {
+          assertEquals(expectedGrowing[g], engine.count(xGrowing[g], yGrowing[g], xGrowing[g].length, null).count,
+              engine.getClass().getSimpleName());
+        }
+        for (String[] test : new String[][] {{"test/test_time_list.txt", "2161"},
+            {"test/duplicate_points.txt", "4"}, {"test/test_time_list.txt", "2161"}}) {
+          PointStore store = TrianglesUtils.createPointStore(test[0]);
+          try {
+            TriangleResult result = engine.count(store);
+            assertEquals(Integer.parseInt(test[1]), result.count, engine.getClass().getSimpleName());
+            assertEquals(store.numPoints(), result.numPoints);
+            assertTrue(result.countNanos > 0);
+            int vertices = 0;
+            for (WorkerStats stats : result.getWorkerStats()) {
+              vertices += stats.getVertices();
+            }
+            assertEquals(engine instanceof ProcessEngine ? 0 : store.numPoints(), vertices);
+          } finally {
+            store.close();
+          }
+        }
+      }
+
+      // The process engine also takes files, passing binary ones to the children as they are
+      ProcessEngine processes = (ProcessEngine)engines[4];
+      assertEquals(32909, processes.count("test/test_long_list.dat").count);
+      assertEquals(4, processes.count("test/test_spec_list.txt").count);
+      assertThrows(IOException.class, () -> processes.count("test/no_such_file.txt"));
+      assertEquals(0, engines[3].count(new int[] {0, 1}, new int[] {0, 0}, 2, null).count);
+      assertEquals(4, processes.count("test/test_spec_list.txt").count); // kept snapshot
+
+      // A failing worker surfaces the same way on both thread pools
+      for (TriangleEngine engine : new TriangleEngine[] {engines[2], engines[3]}) {
+        assertThrows(IllegalStateException.class,
+            () -> engine.count(new int[] {0, 1, 2}, new int[] {0, 1, 2}, 300, null));
+      }
+    } finally {
+      for (TriangleEngine engine : engines) {
+        engine.close();
+      }
+    }
+  }
+
+  // Reference count using the same Direction map as the HashMap kernel
+  private static int hashCount(int[] xCoords, int[] yCoords) {
+    int total = 0;
+    for (int i = 0; i < xCoords.length; i++) {
+      Map<TrianglesUtils.Direction, Integer> counts = new HashMap<>();
+      for (int j = 0; j < xCoords.length; j++) {
+        if (i == j) continue;
+        TrianglesUtils.Direction dir = new TrianglesUtils.Direction(
+            (long) xCoords[j] - xCoords[i], (long) yCoords[j] - yCoords[i]);
+        counts.merge(dir, 1, Integer::sum);
+      }
+      for (Map.Entry<TrianglesUtils.Direction, Integer> entry : counts.entrySet()) {
+        Integer perp = counts.get(new TrianglesUtils.Direction(-entry.getKey().dy, entry.getKey().dx));
+        if (perp != null) {
+          total += entry.getValue() * perp;
+        }
+      }
+    }
+    return total;
+  }
+}
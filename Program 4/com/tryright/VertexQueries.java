@@ -0,0 +1,190 @@
+package com.tryright;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * VertexQueries - answers "how many right triangles have their right angle here?"
+ * Keeps the points resident, so each query is one O(n) direction scan instead of a full recount.
+ *
+ * Usage: java com.tryright.VertexQueries <input_file> [cache_size]
+ *
+ * Reads "x y" queries from stdin, one per line, and prints one count per query.
+ * The query point does not have to be in the dataset. If it is, it is treated as
+ * that point (one copy is skipped), so the answers add up to the full count.
+ *
+ * With cache_size > 0 the counts of the most recently queried corners are kept in
+ * an LRU cache, looked up before anything else, so hot corners skip the scan entirely.
+ */
+public class VertexQueries {
+
+    private final int[] xCoords;
+    private final int[] yCoords;
+    private final int numPoints;
+
+    // LRU cache of per-corner counts keyed by packed (x, y); null when caching is off.
+    // The points never change, so the count is all a later query needs from a table.
+    private final Map<Long, Integer> cache;
+
+    /**
+     * Constructor - copies the points out of the store
+     * @param store PointStore containing the points (can be closed afterwards)
+     * @param cacheSize number of corner counts to keep, 0 to disable caching
+     */
+    public VertexQueries(PointStore store, int cacheSize) {
+        numPoints = store.numPoints();
+        xCoords = new int[numPoints];
+        yCoords = new int[numPoints];
+        store.getPoints(0, numPoints, xCoords, yCoords, 0);
+
+        if (cacheSize > 0) {
+            // Access-ordered LinkedHashMap evicts the least recently used count
+            cache = Collections.synchronizedMap(new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Get number of resident points
+     * @return number of points
+     */
+    public int numPoints() {
+        return numPoints;
+    }
+
+    /**
+     * Count right triangles with the right angle at a dataset point
+     * @param idx index of the corner point
+     * @return count of right triangles at that point
+     * @throws IndexOutOfBoundsException if idx < 0 or idx >= numPoints
+     */
+    public int countAtIndex(int idx) {
+        if (idx < 0 || idx >= numPoints) {
+            throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + numPoints + " points");
+        }
+        Integer cached = cached(xCoords[idx], yCoords[idx]);
+        return cached != null ? cached : countAndCache(xCoords[idx], yCoords[idx], idx);
+    }
+
+    /**
+     * Count right triangles with the right angle at (x, y).
+     * If (x, y) is a dataset point this equals countAtIndex for it; otherwise the point
+     * is hypothetical and every dataset point can form the other two corners.
+     * @param x corner X
+     * @param y corner Y
+     * @return count of right triangles at (x, y)
+     */
+    public int countAt(int x, int y) {
+        // A cache hit needs neither the index lookup nor the direction scan
+        Integer cached = cached(x, y);
+        return cached != null ? cached : countAndCache(x, y, indexOf(x, y));
+    }
+
+    // First dataset index holding (x, y), or -1 if the point is hypothetical
+    private int indexOf(int x, int y) {
+        for (int k = 0; k < numPoints; k++) {
+            if (xCoords[k] == x && yCoords[k] == y) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    // Duplicates of a point share a count: skipping any one copy gives the same table
+    private static Long key(int x, int y) {
+        return ((long)x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private Integer cached(int x, int y) {
+        return cache == null ? null : cache.get(key(x, y));
+    }
+
+    private int countAndCache(int x, int y, int skipIdx) {
+        int count = TrianglesUtils.countPerpendicularPairs(
+            TrianglesUtils.countDirections(xCoords, yCoords, numPoints, x, y, skipIdx));
+        if (cache != null) {
+            cache.put(key(x, y), count);
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java com.tryright.VertexQueries <input_file> [cache_size]");
+            System.exit(1);
+        }
+
+        String filename = args[0];
+        int cacheSize = 0;
+
+        if (args.length == 2) {
+            try {
+                cacheSize = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Cache size must be an integer");
+                System.exit(1);
+            }
+            if (cacheSize < 0) {
+                System.err.println("Error: Cache size cannot be negative");
+                System.exit(1);
+            }
+        }
+
+        File inputFile = new File(filename);
+        if (!inputFile.exists()) {
+            System.err.println("Error: No such file or directory");
+            System.exit(2);
+        }
+
+        if (!inputFile.canRead()) {
+            System.err.println("Error: Permission denied");
+            System.exit(2);
+        }
+
+        PointStore store = null;
+        try {
+            store = TrianglesUtils.createPointStore(filename);
+            VertexQueries queries = new VertexQueries(store, cacheSize);
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    System.err.println("Error: Invalid query format: expected 'x y'");
+                    continue;
+                }
+
+                try {
+                    System.out.println(queries.countAt(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: Invalid coordinate values");
+                }
+            }
+
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+}
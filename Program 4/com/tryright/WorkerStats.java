@@ -0,0 +1,144 @@
+package com.tryright;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * WorkerStats - CPU time, allocation, vertex count and wall time of one worker thread
+ *
+ * Call start() and stop() on the worker thread itself; ThreadMXBean only reports
+ * current-thread allocation through the com.sun.management extension, so
+ * allocated bytes are -1 on JVMs without it. A worker that runs many pieces of
+ * work (e.g. stolen ranges) can call start() and stop() around each; the times add up.
+ */
+public class WorkerStats {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private int vertices;
+
+    private long startWall, startCpu, startAllocated;
+    private long wallNanos, cpuNanos = -1, allocatedBytes = -1;
+
+    /**
+     * Constructor
+     * @param name worker name for the report
+     * @param vertices number of corner points this worker checks
+     */
+    public WorkerStats(String name, int vertices) {
+        this.name = name;
+        this.vertices = vertices;
+    }
+
+    /**
+     * Constructor for a worker whose vertices are added as it goes
+     * @param name worker name for the report
+     */
+    public WorkerStats(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Add corner points checked by this worker
+     * @param count number of corner points
+     */
+    public void addVertices(int count) {
+        vertices += count;
+    }
+
+    /**
+     * Record starting counters; call on the worker thread before counting
+     */
+    public void start() {
+        startCpu = cpuTime();
+        startAllocated = allocatedBytes();
+        startWall = System.nanoTime();
+    }
+
+    /**
+     * Record finishing counters and add them to the totals; call on the worker thread after counting
+     */
+    public void stop() {
+        wallNanos += System.nanoTime() - startWall;
+        long cpu = cpuTime();
+        long allocated = allocatedBytes();
+        cpuNanos = (cpu < 0 || startCpu < 0) ? -1 : Math.max(cpuNanos, 0) + cpu - startCpu;
+        allocatedBytes = (allocated < 0 || startAllocated < 0) ? -1
+            : Math.max(allocatedBytes, 0) + allocated - startAllocated;
+    }
+
+    private static long cpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        if (!THREADS.isThreadCpuTimeEnabled()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)THREADS;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    public int getVertices() {
+        return vertices;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Imbalance factor: slowest worker's wall time over the mean wall time.
+     * 1.0 is perfectly balanced; 2.0 means the run took twice as long as an even split would.
+     * @param stats stats of all workers in the run
+     * @return max / mean wall time, or 1.0 if there is nothing to compare
+     */
+    public static double imbalance(WorkerStats[] stats) {
+        long max = 0, total = 0;
+        int workers = 0;
+        for (WorkerStats s : stats) {
+            if (s == null) continue;
+            max = Math.max(max, s.wallNanos);
+            total += s.wallNanos;
+            workers++;
+        }
+        if (workers == 0 || total == 0) {
+            return 1.0;
+        }
+        return (double)max * workers / total;
+    }
+
+    /**
+     * Print one line per worker plus the imbalance factor
+     * @param out stream to print to
+     * @param stats stats of all workers in the run (null slots are skipped)
+     */
+    public static void printReport(PrintStream out, WorkerStats[] stats) {
+        out.printf("%-12s %10s %12s %12s %14s%n", "Worker", "Vertices", "Wall (ms)", "CPU (ms)", "Alloc (KB)");
+        for (WorkerStats s : stats) {
+            if (s == null) continue;
+            out.printf("%-12s %10d %12.1f %12s %14s%n", s.name, s.vertices, s.wallNanos / 1e6,
+                s.cpuNanos < 0 ? "n/a" : String.format("%.1f", s.cpuNanos / 1e6),
+                s.allocatedBytes < 0 ? "n/a" : Long.toString(s.allocatedBytes >> 10));
+        }
+        out.printf("Imbalance (max/mean wall): %.2f%n", imbalance(stats));
+    }
+}